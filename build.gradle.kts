@@ -54,6 +54,14 @@ dependencies {
     compileOnly("me.clip:placeholderapi:2.11.7")
     compileOnly("io.papermc.paper:paper-api:${project.properties["craftbukkit.version"]}")
     compileOnly("com.denizenscript:denizen:${project.properties["denizen.version"]}")
+
+    testImplementation("com.denizenscript:denizen:${project.properties["denizen.version"]}")
+    testImplementation("org.junit.jupiter:junit-jupiter:5.10.2")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+}
+
+tasks.test {
+    useJUnitPlatform()
 }
 
 val buildNumber: String = System.getenv("BUILD_NUMBER") ?: project.property("BUILD_NUMBER") as String
@@ -13,14 +13,26 @@ import com.denizenscript.denizencore.tags.TagContext;
 import com.denizenscript.denizencore.tags.TagManager;
 import com.denizenscript.denizencore.utilities.debugging.Debug;
 import com.isnsest.denizen.reflect.commands.*;
+import com.isnsest.denizen.reflect.util.ClassPreloader;
+import com.isnsest.denizen.reflect.util.ExecutionGovernor;
+import com.isnsest.denizen.reflect.util.ExpressionPrecompiler;
 import com.isnsest.denizen.reflect.util.ImportManager;
+import com.isnsest.denizen.reflect.util.ImportWatcher;
+import com.isnsest.denizen.reflect.util.JavaExpressionEngine;
 import com.isnsest.denizen.reflect.util.LibraryLoader;
 import com.isnsest.denizen.reflect.util.Metrics;
+import com.isnsest.denizen.reflect.util.TickBudget;
 import com.isnsest.denizen.reflect.events.CustomCommandEvent;
 import com.isnsest.denizen.reflect.events.CustomTagEvent;
 import com.isnsest.denizen.reflect.events.PlaceholderEvent;
 import meigo.denizen.DenizenTagFinder;
 import org.bukkit.Bukkit;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.event.server.PluginDisableEvent;
+import org.bukkit.event.server.PluginEnableEvent;
+import org.bukkit.event.server.ServerLoadEvent;
 import org.bukkit.plugin.java.JavaPlugin;
 
 import java.io.IOException;
@@ -30,6 +42,7 @@ import java.util.*;
 public class DenizenReflect extends JavaPlugin {
 
     public static DenizenReflect instance;
+    public static Thread mainThread;
     Metrics metrics;
 
     public static DenizenReflect getInstance() {
@@ -45,31 +58,89 @@ public class DenizenReflect extends JavaPlugin {
             Debug.echoError("Failed to load external libraries for DenizenReflect:");
             Debug.echoError(e);
         }
-        new Thread(() -> {
+    }
 
-            while (PreScriptReloadScriptEvent.instance == null
-                    || ScriptGeneratesErrorScriptEvent.instance == null
-                    || ObjectFetcher.objectsByPrefix.isEmpty()) {
+    private static boolean denizenReady() {
+        return PreScriptReloadScriptEvent.instance != null
+                && ScriptGeneratesErrorScriptEvent.instance != null
+                && !ObjectFetcher.objectsByPrefix.isEmpty();
+    }
 
-                try { Thread.sleep(10); }
-                catch (InterruptedException ignored) { return; }
+    // Denizen is a hard dependency and is normally fully set up before we are enabled;
+    // server load is the fallback for setups where its core events register late.
+    private void hookDenizen() {
+        if (denizenReady()) {
+            ImportManager.registerEventHooks();
+            startImports();
+            return;
+        }
+        Bukkit.getPluginManager().registerEvents(new Listener() {
+            @EventHandler
+            public void onServerLoad(ServerLoadEvent event) {
+                HandlerList.unregisterAll(this);
+                if (denizenReady()) {
+                    ImportManager.registerEventHooks();
+                    startImports();
+                }
+                else {
+                    Debug.echoError("Denizen did not finish loading, script imports are disabled.");
+                }
             }
+        }, this);
+    }
 
-            ImportManager.registerEventHooks();
-            new Thread(() -> {
-                while (!Bukkit.getPluginManager().isPluginEnabled("dDiscordBot")) {
-                    try { Thread.sleep(1000); }
-                    catch (InterruptedException ignored) { return; }
+    // The saved expression cache is checked against the imports, so it can only be restored once they are read.
+    private void startImports() {
+        ImportManager.scan();
+        if (getConfig().getBoolean("expressions.persist", true)) {
+            try {
+                int loaded = JavaExpressionEngine.loadParsedExpressions(expressionCacheFile());
+                if (loaded > 0) Debug.log("denizen-reflect", "Restored " + loaded + " parsed expressions");
+            }
+            catch (IOException e) {
+                Debug.echoError("Failed to read the expression cache, it will be rebuilt:");
+                Debug.echoError(e);
+            }
+        }
+        ImportManager.warm();
+    }
+
+    // Reflection caches hold classes strongly, so a plugin that is disabled at runtime (e.g. reloaded by a plugin manager)
+    // would otherwise stay loaded. On shutdown everything goes anyway.
+    private void watchPluginDisable() {
+        Bukkit.getPluginManager().registerEvents(new Listener() {
+            @EventHandler
+            public void onPluginDisable(PluginDisableEvent event) {
+                if (event.getPlugin() != DenizenReflect.this && !Bukkit.isStopping()) {
+                    JavaExpressionEngine.forgetClassLoader(event.getPlugin().getClass().getClassLoader());
                 }
-                metrics.addCustomChart(
-                        new Metrics.SimplePie("dDiscordBot", () -> Bukkit.getPluginManager().getPlugin("dDiscordBot").getDescription().getVersion())
-                );
-                metrics.addCustomChart(
-                        new Metrics.SimplePie("Denizen", () -> Bukkit.getPluginManager().getPlugin("Denizen").getDescription().getVersion())
-                );
-            }).start();
-
-        }, "Denizen-Reflect-Init").start();
+            }
+        }, this);
+    }
+
+    private void addDiscordBotCharts() {
+        metrics.addCustomChart(
+                new Metrics.SimplePie("dDiscordBot", () -> Bukkit.getPluginManager().getPlugin("dDiscordBot").getDescription().getVersion())
+        );
+        metrics.addCustomChart(
+                new Metrics.SimplePie("Denizen", () -> Bukkit.getPluginManager().getPlugin("Denizen").getDescription().getVersion())
+        );
+    }
+
+    private void watchDiscordBot() {
+        if (Bukkit.getPluginManager().isPluginEnabled("dDiscordBot")) {
+            addDiscordBotCharts();
+            return;
+        }
+        Bukkit.getPluginManager().registerEvents(new Listener() {
+            @EventHandler
+            public void onPluginEnable(PluginEnableEvent event) {
+                if (event.getPlugin().getName().equals("dDiscordBot")) {
+                    HandlerList.unregisterAll(this);
+                    addDiscordBotCharts();
+                }
+            }
+        }, this);
     }
 
     public static ListTag getScriptTags(List<DenizenTagFinder.TagData> data, TagContext context, ObjectTag result) {
@@ -88,6 +159,7 @@ public class DenizenReflect extends JavaPlugin {
     @Override
     public void onEnable() {
         instance = this;
+        mainThread = Thread.currentThread();
         saveDefaultConfig();
 
         Debug.log("denizen-reflect", "Loading..");
@@ -102,6 +174,8 @@ public class DenizenReflect extends JavaPlugin {
                     return data;
                 })
         );
+        watchDiscordBot();
+        watchPluginDisable();
 
         try {
             if (Bukkit.getPluginManager().isPluginEnabled("PlaceholderAPI")) {
@@ -109,18 +183,30 @@ public class DenizenReflect extends JavaPlugin {
                 ScriptEvent.registerScriptEvent(PlaceholderEvent.class);
             }
             DenizenCore.commandRegistry.registerCommand(AsyncWhileCommand.class);
+            DenizenCore.commandRegistry.registerCommand(AsyncForeachCommand.class);
             DenizenCore.commandRegistry.registerCommand(InvokeCommand.class);
             DenizenCore.commandRegistry.registerCommand(TagCommand.class);
             DenizenCore.commandRegistry.registerCommand(Command.class);
             DenizenCore.commandRegistry.registerCommand(EventCommand.class);
             DenizenCore.commandRegistry.registerCommand(SectionCommand.class);
             DenizenCore.commandRegistry.registerCommand(ProxyCommand.class);
+            DenizenCore.commandRegistry.registerCommand(ReflectCommand.class);
 
             //
 
             ScriptEvent.registerScriptEvent(CustomTagEvent.class);
             ScriptEvent.registerScriptEvent(CustomCommandEvent.class);
 
+            // <--[tag]
+            // @attribute <reflect_limits>
+            // @returns MapTag
+            // @plugin denizen-reflect
+            // @description
+            // Returns the live counters and limits for async-while loops and sections: running, pending, started, rejected,
+            // max_running, max_per_script, max_pending, policy, and scripts (running count per script).
+            // -->
+            TagManager.registerTagHandler(MapTag.class, "reflect_limits", attribute -> ExecutionGovernor.counters());
+
             TagManager.registerTagHandler(ObjectTag.class, "chain", attribute -> {
                 String param = attribute.getRawParam();
                 ObjectTag result = null;
@@ -141,10 +227,41 @@ public class DenizenReflect extends JavaPlugin {
             Debug.echoError(e.getMessage());
         }
 
+        ExpressionPrecompiler.enabled = getConfig().getBoolean("expressions.precompile", true);
+        ClassPreloader.enabled = getConfig().getBoolean("imports.preload", false);
+        TickBudget.budgetNanos = getConfig().getLong("async-while.tick-budget-micros", 5000) * 1000;
+        TickBudget.start(this);
+        SectionCommand.callBlockedLimitNanos = getConfig().getLong("sections.call-blocked-millis", 1000) * 1_000_000;
+        ExecutionGovernor.maxRunning = getConfig().getInt("limits.max-running", 0);
+        ExecutionGovernor.maxPerScript = getConfig().getInt("limits.max-per-script", 0);
+        ExecutionGovernor.maxPending = getConfig().getInt("limits.max-pending", 1024);
+        ExecutionGovernor.policy = "reject".equalsIgnoreCase(getConfig().getString("limits.policy", "delay"))
+                ? ExecutionGovernor.Policy.REJECT : ExecutionGovernor.Policy.DELAY;
+        hookDenizen();
+        if (getConfig().getBoolean("imports.watch", false)) {
+            ImportWatcher.start();
+        }
+
         Debug.log("denizen-reflect", "Loaded successfully!");
     }
 
     @Override
     public void onDisable() {
+        ImportWatcher.stop();
+        AsyncForeachCommand.shutdown();
+        AsyncWhileCommand.shutdown();
+        if (getConfig().getBoolean("expressions.persist", true)) {
+            try {
+                JavaExpressionEngine.saveParsedExpressions(expressionCacheFile());
+            }
+            catch (IOException e) {
+                Debug.echoError("Failed to save the expression cache:");
+                Debug.echoError(e);
+            }
+        }
+    }
+
+    private Path expressionCacheFile() {
+        return getDataFolder().toPath().resolve("expressions.bin");
     }
 }
\ No newline at end of file
@@ -0,0 +1,246 @@
+package com.isnsest.denizen.reflect.commands;
+
+import com.denizenscript.denizencore.objects.ObjectTag;
+import com.denizenscript.denizencore.objects.core.ElementTag;
+import com.denizenscript.denizencore.objects.core.JavaReflectedObjectTag;
+import com.denizenscript.denizencore.objects.core.ListTag;
+import com.denizenscript.denizencore.objects.core.MapTag;
+import com.denizenscript.denizencore.scripts.ScriptEntry;
+import com.denizenscript.denizencore.scripts.commands.BracedCommand;
+import com.denizenscript.denizencore.scripts.commands.Holdable;
+import com.denizenscript.denizencore.scripts.commands.generator.*;
+import com.denizenscript.denizencore.utilities.CoreUtilities;
+import com.denizenscript.denizencore.utilities.debugging.Debug;
+import com.denizenscript.denizencore.utilities.text.StringHolder;
+import com.isnsest.denizen.reflect.DenizenReflect;
+import com.isnsest.denizen.reflect.util.JavaExpressionEngine;
+import meigo.denizen.DenizenTagFinder;
+import org.bukkit.Bukkit;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AsyncForeachCommand extends BracedCommand implements Holdable {
+
+    // @Plugin denizen-reflect
+    public AsyncForeachCommand() {
+        setName("async-foreach");
+        setSyntax("async-foreach [<list>] (as:<name>) (into:<name>) (chunk:<#>) [<invokes>]");
+        setRequiredArguments(1, 4);
+        isProcedural = false;
+        autoCompile();
+    }
+
+    // <--[command]
+    // @Name Async-Foreach
+    // @Syntax async-foreach [<list>] (as:<name>) (into:<name>) (chunk:<#>) [<invokes>]
+    // @Required 1
+    // @Maximum 4
+    // @Short Runs Java expressions over every element of a list in parallel.
+    // @Group denizen-reflect
+    //
+    // @Description
+    // Splits a list, or a Java collection or array, into chunks and runs the braced 'invoke' lines for each element
+    // on a fork-join pool using every core but one.
+    // The body may only contain 'invoke' lines without Denizen tags, since it runs off the main thread.
+    // Inside the body, the element is available as 'value' (or the 'as' name) and its 1-based position as 'loop_index'.
+    // Definitions of the queue are copied in when the command starts; assignments stay local to the element.
+    //
+    // The result of the last line for each element is collected, in the original order, into a ListTag definition
+    // named 'results' (or the 'into' name), one entry per element, so positions match the input list.
+    // An element whose body fails or returns Java null gets an empty entry; the number of failures and the first error are reported.
+    // The definition is set on the main thread once every element is done; use ~ to wait for it.
+    //
+    // Only use this for work that does not touch the world, players or other Bukkit state.
+    //
+    // @Usage
+    // Use to score a large leaderboard on every core.
+    // - ~async-foreach <[entries]> as:entry into:scores:
+    //     - invoke Scoring.score(entry)
+    // - narrate "Scored <[scores].size> entries"
+    //
+    // @Usage
+    // Use to pick chunk sizes yourself for very cheap bodies.
+    // - ~async-foreach <[items]> chunk:2000:
+    //     - invoke value.toUpperCase()
+    // -->
+
+    private static volatile ForkJoinPool pool;
+
+    private static ForkJoinPool pool() {
+        ForkJoinPool current = pool;
+        if (current == null) {
+            synchronized (AsyncForeachCommand.class) {
+                current = pool;
+                if (current == null) {
+                    int parallelism = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+                    current = new ForkJoinPool(parallelism, p -> {
+                        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+                        thread.setName("Denizen-Reflect-Foreach-" + thread.getPoolIndex());
+                        thread.setDaemon(true);
+                        return thread;
+                    }, null, false);
+                    pool = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    public static void shutdown() {
+        ForkJoinPool current = pool;
+        pool = null;
+        if (current != null) {
+            current.shutdownNow();
+        }
+    }
+
+    private static final Object FAILED = new Object();
+
+    // One run over the whole list; each task handles a range and splits until it is at most one chunk long.
+    private static final class Job {
+        final List<Object> items;
+        final List<String> expressions;
+        final String path;
+        final String as;
+        final Map<String, Object> base;
+        final Object[] results;
+        final int chunk;
+        final AtomicInteger failed = new AtomicInteger();
+        volatile Throwable error;
+
+        Job(List<Object> items, List<String> expressions, String path, String as, Map<String, Object> base, int chunk) {
+            this.items = items;
+            this.expressions = expressions;
+            this.path = path;
+            this.as = as;
+            this.base = base;
+            this.results = new Object[items.size()];
+            this.chunk = chunk;
+        }
+
+        void run(int index) {
+            Map<String, Object> locals = new HashMap<>(base);
+            locals.put(as, items.get(index));
+            locals.put("loop_index", index + 1);
+            try {
+                Object result = null;
+                for (String expression : expressions) {
+                    result = JavaExpressionEngine.evaluate(expression, path, locals);
+                }
+                results[index] = result;
+            }
+            catch (Throwable e) {
+                results[index] = FAILED;
+                if (failed.getAndIncrement() == 0) {
+                    error = e;
+                }
+            }
+        }
+    }
+
+    private static final class Part extends RecursiveAction {
+        private final Job job;
+        private final int from;
+        private final int to;
+
+        Part(Job job, int from, int to) {
+            this.job = job;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= job.chunk) {
+                for (int i = from; i < to; i++) {
+                    job.run(i);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Part(job, from, middle), new Part(job, middle, to));
+        }
+    }
+
+    private static List<Object> elementsOf(ObjectTag list, ScriptEntry scriptEntry) {
+        if (list instanceof JavaReflectedObjectTag) {
+            Object raw = list.getJavaObject();
+            if (raw instanceof Collection<?> collection) {
+                return new ArrayList<>(collection);
+            }
+            if (raw instanceof Object[] array) {
+                return Arrays.asList(array);
+            }
+        }
+        List<Object> out = new ArrayList<>();
+        for (ObjectTag element : ListTag.getListFor(list, scriptEntry.context).objectForms) {
+            out.add(element.getJavaObject());
+        }
+        return out;
+    }
+
+    @SuppressWarnings("unused")
+    public static void autoExecute(ScriptEntry scriptEntry,
+                                   @ArgName("list") @ArgLinear ObjectTag list,
+                                   @ArgName("as") @ArgPrefixed @ArgDefaultText("value") String as,
+                                   @ArgName("into") @ArgPrefixed @ArgDefaultText("results") String into,
+                                   @ArgName("chunk") @ArgPrefixed @ArgDefaultText("0") int chunk) {
+        List<ScriptEntry> entries = getBracedCommandsDirect(scriptEntry, scriptEntry);
+        if (entries == null || entries.isEmpty()) {
+            Debug.echoError(scriptEntry, "Empty subsection - did you forget a ':'?");
+            scriptEntry.setFinished(true);
+            return;
+        }
+        List<String> expressions = new ArrayList<>(entries.size());
+        for (ScriptEntry entry : entries) {
+            List<String> args = entry.getOriginalArguments();
+            if (!CoreUtilities.equalsIgnoreCase(entry.getCommandName(), "invoke") || args.size() != 1) {
+                Debug.echoError(scriptEntry, "Async-foreach can only contain 'invoke <expression>' lines, found: " + entry.getCommandName());
+                scriptEntry.setFinished(true);
+                return;
+            }
+            if (!DenizenTagFinder.findTags(args.get(0)).isEmpty() || args.get(0).indexOf('%') >= 0) {
+                Debug.echoError(scriptEntry, "Async-foreach bodies cannot use tags or %templates%: " + args.get(0));
+                scriptEntry.setFinished(true);
+                return;
+            }
+            expressions.add(args.get(0));
+        }
+
+        List<Object> items = elementsOf(list, scriptEntry);
+        Map<String, Object> base = new HashMap<>();
+        MapTag definitions = scriptEntry.queue.definitions;
+        for (Map.Entry<StringHolder, ObjectTag> val : definitions.entrySet()) {
+            base.put(val.getKey().str, val.getValue().getJavaObject());
+        }
+        ForkJoinPool pool = pool();
+        // A few chunks per worker keeps the cores busy when some elements are slower than others.
+        int size = chunk > 0 ? chunk : Math.max(1, items.size() / (pool.getParallelism() * 4));
+        Job job = new Job(items, expressions, JavaExpressionEngine.scriptPath(scriptEntry), as, base, size);
+        if (scriptEntry.dbCallShouldDebug()) {
+            Debug.echoDebug(scriptEntry, "Async-foreach over " + items.size() + " elements in chunks of " + size);
+        }
+
+        pool.execute(() -> {
+            new Part(job, 0, items.size()).invoke();
+            Bukkit.getScheduler().runTask(DenizenReflect.instance, () -> finish(scriptEntry, job, into));
+        });
+    }
+
+    private static void finish(ScriptEntry scriptEntry, Job job, String into) {
+        ListTag results = new ListTag();
+        for (Object result : job.results) {
+            results.addObject(result == null || result == FAILED ? new ElementTag("") : JavaExpressionEngine.wrapObject(result, scriptEntry.context));
+        }
+        if (job.failed.get() > 0) {
+            Debug.echoError(scriptEntry, job.failed.get() + " of " + job.results.length + " elements failed in async-foreach; first error: "
+                    + job.error.getClass().getSimpleName() + ": " + job.error.getMessage());
+        }
+        scriptEntry.queue.addDefinition(into, results);
+        scriptEntry.setFinished(true);
+    }
+}
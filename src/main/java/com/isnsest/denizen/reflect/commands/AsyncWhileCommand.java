@@ -2,11 +2,13 @@ package com.isnsest.denizen.reflect.commands;
 
 import com.denizenscript.denizencore.exceptions.InvalidArgumentsException;
 import com.denizenscript.denizencore.objects.ObjectTag;
+import com.denizenscript.denizencore.objects.core.DurationTag;
+import com.denizenscript.denizencore.objects.core.ListTag;
 import com.denizenscript.denizencore.objects.core.MapTag;
 import com.denizenscript.denizencore.scripts.ScriptEntryData;
-import com.denizenscript.denizencore.scripts.commands.queue.IfCommand;
 import com.denizenscript.denizencore.scripts.queues.ContextSource;
 import com.denizenscript.denizencore.scripts.queues.ScriptQueue;
+import com.denizenscript.denizencore.scripts.queues.core.TimedQueue;
 import com.denizenscript.denizencore.utilities.CoreConfiguration;
 import com.denizenscript.denizencore.utilities.CoreUtilities;
 import com.denizenscript.denizencore.utilities.ScriptUtilities;
@@ -15,10 +17,19 @@ import com.denizenscript.denizencore.objects.core.ElementTag;
 import com.denizenscript.denizencore.scripts.ScriptEntry;
 import com.denizenscript.denizencore.scripts.commands.BracedCommand;
 import com.denizenscript.denizencore.utilities.text.StringHolder;
+import com.isnsest.denizen.reflect.DenizenReflect;
+import com.isnsest.denizen.reflect.util.CompiledCondition;
+import com.isnsest.denizen.reflect.util.ExecutionGovernor;
+import com.isnsest.denizen.reflect.util.JavaExpressionEngine;
+import com.isnsest.denizen.reflect.util.SharedDefinitions;
+import com.isnsest.denizen.reflect.util.TickBudget;
+import meigo.denizen.DenizenTagFinder;
+import org.bukkit.Bukkit;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.function.Consumer;
 
 public class AsyncWhileCommand extends BracedCommand {
@@ -26,7 +37,7 @@ public class AsyncWhileCommand extends BracedCommand {
     // @Plugin denizen-reflect
     public AsyncWhileCommand() {
         setName("async-while");
-        setSyntax("async-while [stop/next/[<value>] (!)(<operator> <value>) (&&/|| ...)] [<commands>]");
+        setSyntax("async-while [stop/next/sync/(thread) [<value>] (!)(<operator> <value>) (&&/|| ...)] [<commands>]");
         setRequiredArguments(1, -1);
         setParseArgs(false);
         isProcedural = true;
@@ -34,7 +45,7 @@ public class AsyncWhileCommand extends BracedCommand {
 
     // <--[command]
     // @Name Async-While
-    // @Syntax async-while [stop/next/[<value>] (!)(<operator> <value>) (&&/|| ...)] [<commands>]
+    // @Syntax async-while [stop/next/sync/(thread) [<value>] (!)(<operator> <value>) (&&/|| ...)] [<commands>]
     // @Required 1
     // @Maximum -1
     // @Short Runs a series of braced commands asynchronously until the tag returns false.
@@ -47,7 +58,22 @@ public class AsyncWhileCommand extends BracedCommand {
     // Unlike the normal while command, this does not block the current queue.
     //
     // You can end the loop early using 'stop', or skip to the next iteration with 'next'.
-
+    //
+    // With 'thread', the comparison and the loop body run on a virtual thread instead of the main thread.
+    // Since Denizen itself cannot run there, the body may only contain 'invoke' lines without tags
+    // and 'async-while sync', 'stop' and 'next' lines, and the comparison may only read definitions.
+    // The body works on a copy of the definitions taken when the loop starts, as Java values,
+    // with the number of the pass about to run as 'loop_index'; assignments in 'invoke' lines update that copy.
+    // For anything else, use an 'async-while sync' block: the thread hands that block to the main thread,
+    // waits for it to finish, and continues with the definitions it ends with.
+    // Outside of a thread loop, a sync block simply runs in place.
+    //
+    // Regular loops share a per-tick time budget (async-while.tick-budget-micros in the config).
+    // A loop that uses up its share of the budget continues on the next tick instead of holding up the server.
+    // With the budget set to 0, Denizen's own max while loops limit applies instead.
+    //
+    // Loops count towards the limits in the config (limits:), shared with sections. A loop over a limit
+    // starts once another one ends, or is not started at all with the reject policy. See <reflect_limits>.
     //
     // @Tags
     // <[loop_index]> to get the number of loops so far.
@@ -58,20 +84,276 @@ public class AsyncWhileCommand extends BracedCommand {
     //     - narrate "Waiting for you to sneak..."
     //     - wait 1s
     //
+    // @Usage
+    // Use to crunch numbers off the main thread and report back on it.
+    // - async-while thread <[loop_index]> <= 10:
+    //     - invoke result = Worker.crunch(loop_index)
+    //     - async-while sync:
+    //         - narrate "Chunk <[loop_index]>: <[result]>"
+    //
     // -->
 
     private static class WhileData {
         public int index;
-        public List<String> value;
+        public CompiledCondition condition;
+        public final TickBudget.Slot budget = new TickBudget.Slot();
         public long LastChecked;
         public int instaTicks;
         public ObjectTag originalIndexValue;
+        // Snapshot of the caller's definitions the loop queue starts with.
+        public MapTag definitions;
+        public ScriptEntry callback;
+        // Entries queued after the callback when the current pass was injected, normally none.
+        public int tail;
 
         public void reapplyAtEnd(ScriptQueue queue) {
             queue.addDefinition("loop_index", originalIndexValue);
         }
     }
 
+    // The loop running in this queue, found through its callback entry instead of by the queue itself:
+    // a 'wait' or a tick-budget pause moves the remaining entries to a new queue. The callback is normally last.
+    private static WhileData loopOf(ScriptQueue queue) {
+        for (int i = queue.getQueueSize() - 1; i >= 0; i--) {
+            ScriptEntry entry = queue.getEntry(i);
+            if (entry.getOwner() != null && entry.getOwner().getData() instanceof WhileData data && data.callback == entry) {
+                return data;
+            }
+        }
+        return null;
+    }
+
+    // Drops the rest of the current pass up to the loop's callback, which is found by its known distance
+    // from the end of the queue instead of by scanning. With 'including' the callback goes too, ending the loop.
+    private static boolean skipTo(ScriptQueue queue, WhileData data, boolean including) {
+        int position = queue.getQueueSize() - 1 - data.tail;
+        if (position < 0 || queue.getEntry(position) != data.callback) return false;
+        if (data.tail == 0) {
+            queue.clear();
+            if (!including) {
+                queue.addEntries(List.of(data.callback));
+            }
+            return true;
+        }
+        int remove = including ? position + 1 : position;
+        for (int i = 0; i < remove; i++) {
+            queue.removeFirst();
+        }
+        return true;
+    }
+
+    // Pauses the loop's queue until the next tick; the pass already injected runs first thing when it resumes.
+    private static void delayOneTick(ScriptQueue queue) {
+        DurationTag delay = new DurationTag(1L);
+        if (queue instanceof TimedQueue timed) {
+            timed.delayFor(delay);
+        }
+        else {
+            queue.forceToTimed(delay);
+        }
+    }
+
+    // Used when the tick budget is disabled: like the core while command, a loop that runs
+    // more than whileMaxLoops passes without a 50ms break is ended.
+    private static boolean overMaxLoops(WhileData data) {
+        if (CoreUtilities.monotonicMillis() - data.LastChecked < 50) {
+            data.instaTicks++;
+            if (data.instaTicks > CoreConfiguration.whileMaxLoops && CoreConfiguration.whileMaxLoops != 0) {
+                return true;
+            }
+        }
+        else {
+            data.instaTicks = 0;
+        }
+        data.LastChecked = CoreUtilities.monotonicMillis();
+        return false;
+    }
+
+    private static ExecutionGovernor.Admission admit(ScriptEntry scriptEntry, Runnable start) {
+        ExecutionGovernor.Admission admission = ExecutionGovernor.submit(ExecutionGovernor.scriptOf(scriptEntry), start);
+        if (admission == ExecutionGovernor.Admission.REJECTED) {
+            Debug.echoError(scriptEntry, "Too many async loops and sections are running, not starting this one. See <reflect_limits>.");
+        }
+        return admission;
+    }
+
+    private static final String SYNC_MARKER = "\0SYNC";
+
+    // Thread-mode loops that are still running, so the plugin can stop them when it is disabled.
+    private static final Set<ThreadLoop> threadLoops = ConcurrentHashMap.newKeySet();
+
+    // Stops every thread-mode loop. A loop waiting on a sync block is interrupted, since the main thread will not run it anymore.
+    public static void shutdown() {
+        for (ThreadLoop loop : threadLoops) {
+            loop.stopped = true;
+            Thread thread = loop.thread;
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+    }
+
+    // A loop in thread mode. Its body is limited to tag-free 'invoke' lines, which run on the loop's own thread
+    // against a private copy of the definitions, and 'async-while sync/stop/next'. The condition may only read
+    // definitions. Anything that needs Denizen itself goes through a sync block on the main thread.
+    private static final class ThreadLoop implements Runnable {
+        private final ScriptEntry scriptEntry;
+        private final CompiledCondition condition;
+        private final List<ScriptEntry> body;
+        private final String path;
+        private final Map<String, Object> locals;
+        private volatile boolean stopped;
+        private volatile boolean skipped;
+        private volatile Thread thread;
+
+        ThreadLoop(ScriptEntry scriptEntry, CompiledCondition condition, List<ScriptEntry> body) {
+            this.scriptEntry = scriptEntry;
+            this.condition = condition;
+            this.body = body;
+            this.path = JavaExpressionEngine.scriptPath(scriptEntry);
+            this.locals = new HashMap<>();
+            for (Map.Entry<StringHolder, ObjectTag> val : scriptEntry.queue.definitions.entrySet()) {
+                locals.put(val.getKey().str, val.getValue().getJavaObject());
+            }
+        }
+
+        @Override
+        public void run() {
+            thread = Thread.currentThread();
+            threadLoops.add(this);
+            try {
+                // The condition sees the number of the pass that is about to run.
+                for (int index = 1; !stopped; index++) {
+                    locals.put("loop_index", index);
+                    if (!condition.test(locals)) break;
+                    skipped = false;
+                    for (ScriptEntry entry : body) {
+                        if (stopped || skipped || Thread.currentThread().isInterrupted()) break;
+                        runLine(entry);
+                    }
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            catch (Throwable e) {
+                Debug.echoError(scriptEntry, "Async-while thread failed:");
+                Debug.echoError(e);
+            }
+            finally {
+                threadLoops.remove(this);
+                ExecutionGovernor.release(ExecutionGovernor.scriptOf(scriptEntry));
+            }
+        }
+
+        private void runLine(ScriptEntry entry) throws Throwable {
+            String arg = entry.getOriginalArguments().get(0);
+            if (CoreUtilities.equalsIgnoreCase(entry.getCommandName(), "invoke")) {
+                JavaExpressionEngine.evaluate(arg, path, locals);
+            }
+            else if (CoreUtilities.equalsIgnoreCase(arg, "stop")) {
+                stopped = true;
+            }
+            else if (CoreUtilities.equalsIgnoreCase(arg, "next")) {
+                skipped = true;
+            }
+            else {
+                runSync(entry);
+            }
+        }
+
+        // Hands a sync block to the main thread and waits for it. The block gets the loop's values as definitions,
+        // and the loop continues with whatever definitions the block ends with. A definition the block left untouched
+        // keeps its original Java object rather than a round trip through its tag, so identity and exact types survive.
+        // The wait ends early if the loop is stopped by shutdown().
+        private void runSync(ScriptEntry syncEntry) throws InterruptedException {
+            CompletableFuture<MapTag> done = new CompletableFuture<>();
+            Map<String, Object> values = new HashMap<>(locals);
+            Map<String, ObjectTag> sent = new HashMap<>();
+            Bukkit.getScheduler().runTask(DenizenReflect.instance, () -> {
+                try {
+                    List<ScriptEntry> entries = getBracedCommandsDirect(syncEntry, syncEntry);
+                    MapTag definitions = new MapTag();
+                    for (Map.Entry<String, Object> value : values.entrySet()) {
+                        if (value.getValue() != null) {
+                            ObjectTag tag = JavaExpressionEngine.wrapObject(value.getValue(), scriptEntry.context);
+                            sent.put(value.getKey(), tag);
+                            definitions.putObject(value.getKey(), tag);
+                        }
+                    }
+                    // Lets 'stop' and 'next' inside the block find this loop, even after a 'wait' moves the block to another queue.
+                    ScriptEntry marker = new ScriptEntry("ASYNC-WHILE", new String[] {SYNC_MARKER},
+                            (scriptEntry.getScript() != null ? scriptEntry.getScript().getContainer() : null));
+                    marker.setData(this);
+                    entries.add(marker);
+                    Consumer<ScriptQueue> configure = (queue) -> {
+                        queue.definitions = definitions;
+                        queue.callBack(() -> done.complete(queue.definitions));
+                    };
+                    ScriptUtilities.createAndStartQueueArbitrary("Async-While-Sync", entries, scriptEntry.entryData.clone(), scriptEntry.context.contextSource, configure);
+                }
+                catch (Throwable e) {
+                    done.completeExceptionally(e);
+                }
+            });
+            MapTag result;
+            try {
+                result = done.get();
+            }
+            catch (InterruptedException e) {
+                done.cancel(false);
+                throw e;
+            }
+            catch (ExecutionException e) {
+                Debug.echoError(scriptEntry, "Async-while sync block failed:");
+                Debug.echoError(e.getCause());
+                return;
+            }
+            // The queue's callback ran on the main thread after sent was filled, and done.get() orders it before this read.
+            locals.clear();
+            for (Map.Entry<StringHolder, ObjectTag> val : result.entrySet()) {
+                String name = val.getKey().str;
+                ObjectTag tag = val.getValue();
+                // Lists and maps can be changed in place by the block, so only other tags count as untouched.
+                boolean untouched = sent.get(name) == tag && !(tag instanceof ListTag) && !(tag instanceof MapTag);
+                locals.put(name, untouched ? values.get(name) : tag.getJavaObject());
+            }
+        }
+    }
+
+    // The thread loop whose sync block is running in this queue, found through the marker at the end of the block.
+    private static ThreadLoop syncLoopOf(ScriptQueue queue) {
+        for (int i = queue.getQueueSize() - 1; i >= 0; i--) {
+            if (queue.getEntry(i).getData() instanceof ThreadLoop loop) {
+                return loop;
+            }
+        }
+        return null;
+    }
+
+    // Checks a thread-mode body up front, since it cannot be interpreted by Denizen once it runs.
+    private static boolean isThreadSafe(ScriptEntry scriptEntry, List<ScriptEntry> body) {
+        for (ScriptEntry entry : body) {
+            List<String> args = entry.getOriginalArguments();
+            if (CoreUtilities.equalsIgnoreCase(entry.getCommandName(), "invoke") && args.size() == 1) {
+                if (!DenizenTagFinder.findTags(args.get(0)).isEmpty() || args.get(0).indexOf('%') >= 0) {
+                    Debug.echoError(scriptEntry, "Async-while thread bodies cannot use tags or %templates% outside of a sync block: " + args.get(0));
+                    return false;
+                }
+                continue;
+            }
+            if (CoreUtilities.equalsIgnoreCase(entry.getCommandName(), "async-while") && !args.isEmpty()) {
+                String arg = args.get(0);
+                if (CoreUtilities.equalsIgnoreCase(arg, "sync") || ((CoreUtilities.equalsIgnoreCase(arg, "stop") || CoreUtilities.equalsIgnoreCase(arg, "next")) && args.size() == 1)) {
+                    continue;
+                }
+            }
+            Debug.echoError(scriptEntry, "Async-while thread bodies can only contain 'invoke <expression>' and 'async-while sync/stop/next' lines, found: " + entry.getCommandName());
+            return false;
+        }
+        return true;
+    }
+
     @Override
     public void parseArgs(ScriptEntry scriptEntry) throws InvalidArgumentsException {
         List<String> comparisons = new ArrayList<>();
@@ -86,6 +368,9 @@ public class AsyncWhileCommand extends BracedCommand {
             else if (arg.equals("\0CALLBACK")) {
                 scriptEntry.addObject("callback", new ElementTag(true));
             }
+            else if (arg.equals(SYNC_MARKER)) {
+                scriptEntry.addObject("marker", new ElementTag(true));
+            }
         }
         for (String arg : scriptEntry.getOriginalArguments()) {
             if (arg.equals("{")) {
@@ -93,26 +378,33 @@ public class AsyncWhileCommand extends BracedCommand {
             }
             comparisons.add(arg);
         }
-        if (comparisons.isEmpty() && !scriptEntry.hasObject("stop") && !scriptEntry.hasObject("next") && !scriptEntry.hasObject("callback")) {
+        if (comparisons.size() == 1 && CoreUtilities.equalsIgnoreCase(comparisons.get(0), "sync")) {
+            scriptEntry.addObject("sync", new ElementTag(true));
+            comparisons.clear();
+        }
+        else if (comparisons.size() > 1 && CoreUtilities.equalsIgnoreCase(comparisons.get(0), "thread")) {
+            scriptEntry.addObject("thread", new ElementTag(true));
+            comparisons.remove(0);
+        }
+        if (comparisons.isEmpty() && !scriptEntry.hasObject("stop") && !scriptEntry.hasObject("next") && !scriptEntry.hasObject("callback") && !scriptEntry.hasObject("sync")) {
             throw new InvalidArgumentsException("Must specify a comparison value or 'stop' or 'next'!");
         }
         scriptEntry.addObject("comparisons", comparisons);
 
     }
 
-    public void async_while(ScriptEntry scriptEntry, List<ScriptEntry> directEntries) {
+    private void async_while(ScriptEntry scriptEntry, List<ScriptEntry> directEntries, WhileData data) {
 
         String queueId = "Async-While";
         ScriptEntryData entryData = scriptEntry.entryData.clone();
         ContextSource contextSource = scriptEntry.context.contextSource;
-        MapTag defMap = scriptEntry.queue.definitions.duplicate();
+        MapTag defMap = data.definitions;
+        data.definitions = null;
+        String script = ExecutionGovernor.scriptOf(scriptEntry);
 
         Consumer<ScriptQueue> configure = (queue) -> {
-            if (defMap != null) {
-                for (Map.Entry<StringHolder, ObjectTag> val : defMap.entrySet()) {
-                    queue.addDefinition(val.getKey().str, val.getValue());
-                }
-            }
+            queue.callBack(() -> ExecutionGovernor.release(script));
+            queue.definitions = defMap;
         };
 
         ScriptUtilities.createAndStartQueueArbitrary(queueId, directEntries, entryData, contextSource, configure);
@@ -123,31 +415,43 @@ public class AsyncWhileCommand extends BracedCommand {
         ElementTag stop = scriptEntry.getElement("stop");
         ElementTag next = scriptEntry.getElement("next");
         ElementTag callback = scriptEntry.getElement("callback");
+        ElementTag sync = scriptEntry.getElement("sync");
+        ElementTag thread = scriptEntry.getElement("thread");
         ScriptQueue queue = scriptEntry.queue;
+        if (scriptEntry.hasObject("marker")) {
+            return;
+        }
+        // Sync blocks of thread loops are run by the loop itself, so one that gets here is already on the main thread.
+        if (sync != null && sync.asBoolean()) {
+            List<ScriptEntry> entries = getBracedCommandsDirect(scriptEntry, scriptEntry);
+            if (entries == null || entries.isEmpty()) {
+                Debug.echoError(scriptEntry, "Empty subsection - did you forget a ':'?");
+                return;
+            }
+            queue.injectEntries(entries, 0);
+            return;
+        }
+        // A queue runs either a regular loop, ending with its callback, or a sync block, ending with its marker.
+        if (((stop != null && stop.asBoolean()) || (next != null && next.asBoolean())) && loopOf(queue) == null) {
+            ThreadLoop threadLoop = syncLoopOf(queue);
+            if (threadLoop != null) {
+                if (stop != null && stop.asBoolean()) {
+                    threadLoop.stopped = true;
+                }
+                else {
+                    threadLoop.skipped = true;
+                }
+                queue.clear();
+                return;
+            }
+        }
         if (stop != null && stop.asBoolean()) {
             if (scriptEntry.dbCallShouldDebug()) {
                 Debug.report(scriptEntry, getName(), stop);
             }
-            boolean hasnext = false;
-            for (int i = 0; i < queue.getQueueSize(); i++) {
-                ScriptEntry entry = queue.getEntry(i);
-                List<String> args = entry.getOriginalArguments();
-                if (entry.getCommandName().equals("ASYNC-WHILE") && args.size() == 1 && args.get(0).equals("\0CALLBACK")) {
-                    hasnext = true;
-                    break;
-                }
-            }
-            if (hasnext) {
-                while (queue.getQueueSize() > 0) {
-                    ScriptEntry entry = queue.getEntry(0);
-                    List<String> args = entry.getOriginalArguments();
-                    if (entry.getCommandName().equals("ASYNC-WHILE") && args.size() == 1 && args.get(0).equals("\0CALLBACK")) {
-                        ((WhileData) entry.getOwner().getData()).reapplyAtEnd(queue);
-                        queue.removeFirst();
-                        break;
-                    }
-                    queue.removeFirst();
-                }
+            WhileData data = loopOf(queue);
+            if (data != null && skipTo(queue, data, true)) {
+                data.reapplyAtEnd(queue);
             }
             else {
                 Debug.echoError(scriptEntry, "Cannot stop while: not in one!");
@@ -158,26 +462,8 @@ public class AsyncWhileCommand extends BracedCommand {
             if (scriptEntry.dbCallShouldDebug()) {
                 Debug.report(scriptEntry, getName(), next);
             }
-            boolean hasnext = false;
-            for (int i = 0; i < queue.getQueueSize(); i++) {
-                ScriptEntry entry = queue.getEntry(i);
-                List<String> args = entry.getOriginalArguments();
-                if (entry.getCommandName().equals("ASYNC-WHILE") && args.size() == 1 && args.get(0).equals("\0CALLBACK")) {
-                    hasnext = true;
-                    break;
-                }
-            }
-            if (hasnext) {
-                while (queue.getQueueSize() > 0) {
-                    ScriptEntry entry = queue.getEntry(0);
-                    List<String> args = entry.getOriginalArguments();
-                    if (entry.getCommandName().equals("ASYNC-WHILE") && args.size() == 1 && args.get(0).equals("\0CALLBACK")) {
-                        break;
-                    }
-                    queue.removeFirst();
-                }
-            }
-            else {
+            WhileData data = loopOf(queue);
+            if (data == null || !skipTo(queue, data, false)) {
                 Debug.echoError(scriptEntry, "Cannot 'while next': not in one!");
             }
             return;
@@ -188,17 +474,12 @@ public class AsyncWhileCommand extends BracedCommand {
                     scriptEntry.getBracedSet().get(0).value.get(scriptEntry.getBracedSet().get(0).value.size() - 1) != scriptEntry)) {
                 WhileData data = (WhileData) scriptEntry.getOwner().getData();
                 data.index++;
-                if (CoreUtilities.monotonicMillis() - data.LastChecked < 50) {
-                    data.instaTicks++;
-                    if (data.instaTicks > CoreConfiguration.whileMaxLoops && CoreConfiguration.whileMaxLoops != 0) {
-                        return;
-                    }
-                }
-                else {
-                    data.instaTicks = 0;
+                if (TickBudget.budgetNanos <= 0 && overMaxLoops(data)) {
+                    data.reapplyAtEnd(queue);
+                    return;
                 }
-                data.LastChecked = CoreUtilities.monotonicMillis();
-                boolean run = new IfCommand.ArgComparer().compare(new ArrayList(data.value), scriptEntry);
+                boolean yield = data.budget.endPass();
+                boolean run = data.condition.test(scriptEntry);
                 if (run) {
                     if (scriptEntry.dbCallShouldDebug()) {
                         Debug.echoDebug(scriptEntry, Debug.DebugElement.Header, "While loop " + data.index);
@@ -209,10 +490,18 @@ public class AsyncWhileCommand extends BracedCommand {
                     callbackEntry.copyFrom(scriptEntry);
                     callbackEntry.setOwner(scriptEntry.getOwner());
                     bracedCommands.add(callbackEntry);
+                    data.callback = callbackEntry;
+                    data.tail = queue.getQueueSize();
                     for (int i = 0; i < bracedCommands.size(); i++) {
                         bracedCommands.get(i).setInstant(true);
                     }
-                    async_while(scriptEntry, bracedCommands);
+                    // The callback is always the last entry of the loop's queue, so the next pass goes right after it.
+                    // Entries are still cloned because they keep per-run state, but the queue and its definitions are reused.
+                    queue.injectEntries(bracedCommands, 0);
+                    data.budget.beginPass();
+                    if (yield) {
+                        delayOneTick(queue);
+                    }
                 }
                 else {
                     data.reapplyAtEnd(queue);
@@ -227,7 +516,29 @@ public class AsyncWhileCommand extends BracedCommand {
         }
         else {
             List<String> comparisons = (List<String>) scriptEntry.getObject("comparisons");
-            boolean run = new IfCommand.ArgComparer().compare(comparisons, scriptEntry);
+            if (thread != null && thread.asBoolean()) {
+                if (scriptEntry.dbCallShouldDebug()) {
+                    Debug.report(scriptEntry, getName(), db("thread", true));
+                }
+                CompiledCondition condition = CompiledCondition.compileDefinitions(comparisons);
+                if (condition == null) {
+                    Debug.echoError(scriptEntry, "Async-while thread conditions can only compare definitions and plain values, e.g. <[loop_index]> <= 100");
+                    return;
+                }
+                List<ScriptEntry> body = getBracedCommandsDirect(scriptEntry, scriptEntry);
+                if (body == null || body.isEmpty()) {
+                    Debug.echoError(scriptEntry, "Empty subsection - did you forget a ':'?");
+                    return;
+                }
+                if (!isThreadSafe(scriptEntry, body)) {
+                    return;
+                }
+                ThreadLoop loop = new ThreadLoop(scriptEntry, condition, body);
+                admit(scriptEntry, () -> Thread.ofVirtual().name("Denizen-Reflect-Async-While").start(loop));
+                return;
+            }
+            CompiledCondition condition = CompiledCondition.compile(comparisons, scriptEntry.getContext());
+            boolean run = condition.test(scriptEntry);
             if (scriptEntry.dbCallShouldDebug()) {
                 Debug.report(scriptEntry, getName(), db("run_first_loop", run));
             }
@@ -236,9 +547,10 @@ public class AsyncWhileCommand extends BracedCommand {
             }
             WhileData datum = new WhileData();
             datum.index = 1;
-            datum.value = comparisons;
+            datum.condition = condition;
             datum.LastChecked = CoreUtilities.monotonicMillis();
             datum.instaTicks = 1;
+            datum.budget.beginPass();
             scriptEntry.setData(datum);
             ScriptEntry callbackEntry = new ScriptEntry("ASYNC-WHILE", new String[] {"\0CALLBACK"},
                     (scriptEntry.getScript() != null ? scriptEntry.getScript().getContainer() : null));
@@ -256,7 +568,11 @@ public class AsyncWhileCommand extends BracedCommand {
                 bracedCommandsList.get(i).setInstant(true);
             }
             scriptEntry.setInstant(true);
-            async_while(scriptEntry, bracedCommandsList);
+            datum.callback = callbackEntry;
+            datum.definitions = SharedDefinitions.snapshot(queue);
+            if (admit(scriptEntry, () -> async_while(scriptEntry, bracedCommandsList, datum)) == ExecutionGovernor.Admission.REJECTED) {
+                datum.reapplyAtEnd(queue);
+            }
         }
     }
 }
\ No newline at end of file
@@ -19,8 +19,9 @@ import com.isnsest.denizen.reflect.util.LibraryLoader;
 
 import java.lang.reflect.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
-import static com.isnsest.denizen.reflect.util.JavaExpressionEngine.resolveClass;
+import static com.isnsest.denizen.reflect.util.JavaExpressionEngine.findClass;
 
 public class ProxyCommand extends AbstractCommand {
 
@@ -62,14 +63,7 @@ public class ProxyCommand extends AbstractCommand {
                 JavaExpressionEngine.ImportContext imports = JavaExpressionEngine.importContexts.get(path);
                 JavaExpressionEngine.EvalContext ctx = new JavaExpressionEngine.EvalContext(imports, entry);
                 Class<?> imported = ctx.imports().resolveType(interfaceName);
-                Class<?> clazz = null;
-                if (imported != null) {
-                    clazz = imported;
-                } else {
-                    try {
-                        clazz = resolveClass(name);
-                    } catch (ClassNotFoundException ignored) {}
-                }
+                Class<?> clazz = imported != null ? imported : findClass(interfaceName);
                 if (clazz != null && clazz.isInterface()) {
                     interfaceList.add(clazz);
                 } else {
@@ -90,89 +84,164 @@ public class ProxyCommand extends AbstractCommand {
             scriptHandlers.put(mapEntry.getKey().low, mapEntry.getValue());
         }
 
+        Map<Method, Handler> dispatch = new ConcurrentHashMap<>();
+        for (Class<?> iface : interfaceList) {
+            for (Method method : iface.getMethods()) {
+                if (!Modifier.isStatic(method.getModifiers())) {
+                    dispatch.putIfAbsent(method, resolve(method, scriptHandlers, entry));
+                }
+            }
+        }
+        // equals, hashCode and toString: the only Object methods a proxy receives.
+        for (Method method : Object.class.getMethods()) {
+            if (!Modifier.isFinal(method.getModifiers())) {
+                dispatch.putIfAbsent(method, resolve(method, scriptHandlers, entry));
+            }
+        }
+
         Object proxyInstance = Proxy.newProxyInstance(
                 LibraryLoader.getClassLoader(),
                 interfaceList.toArray(new Class[0]),
-                new DenizenInvocationHandler(scriptHandlers, entry)
+                new DenizenInvocationHandler(dispatch, scriptHandlers, entry)
         );
 
         entry.getResidingQueue().addDefinition(name, new JavaReflectedObjectTag(proxyInstance));
     }
 
-    private record DenizenInvocationHandler(Map<String, ObjectTag> scriptHandlers,
-                                            ScriptEntry creationEntry) implements InvocationHandler {
+    private static final Method INVOKE_DEFAULT;
 
-            private static final Method INVOKE_DEFAULT;
+    static {
+        Method method;
+        try {
+            method = InvocationHandler.class.getDeclaredMethod("invokeDefault", Object.class, Method.class, Object[].class);
+            method.setAccessible(true);
+        } catch (NoSuchMethodException e) {
+            method = null;
+        }
+        INVOKE_DEFAULT = method;
+    }
 
-            static {
-                Method method;
-                try {
-                    method = InvocationHandler.class.getDeclaredMethod("invokeDefault", Object.class, Method.class, Object[].class);
-                    method.setAccessible(true);
-                } catch (NoSuchMethodException e) {
-                    method = null;
-                }
-                INVOKE_DEFAULT = method;
+    // What a proxy does for one interface method, worked out once when the proxy is created.
+    private interface Handler {
+        Object handle(Object proxy, Method method, Object[] args) throws Throwable;
+    }
+
+    private static Handler resolve(Method method, Map<String, ObjectTag> scriptHandlers, ScriptEntry creationEntry) {
+        String methodName = method.getName();
+        ObjectTag scriptName = scriptHandlers.get(methodName.toLowerCase());
+        if (scriptName == null) {
+            if (method.isDefault() && INVOKE_DEFAULT != null) {
+                return (proxy, m, args) -> INVOKE_DEFAULT.invoke(null, proxy, m, args);
+            }
+            if (methodName.equals("toString") && method.getParameterCount() == 0) {
+                return (proxy, m, args) -> proxy.getClass().getName() + "@" + Integer.toHexString(proxy.hashCode());
             }
+            if (methodName.equals("hashCode") && method.getParameterCount() == 0) {
+                return (proxy, m, args) -> System.identityHashCode(proxy);
+            }
+            if (methodName.equals("equals") && method.getParameterCount() == 1 && method.getParameterTypes()[0] == Object.class) {
+                return (proxy, m, args) -> proxy == args[0];
+            }
+            return (proxy, m, args) -> null;
+        }
+        if (scriptName.getJavaObject() instanceof String script) {
+            return new ScriptHandler(script, new ElementTag(methodName), creationEntry.entryData);
+        }
+        if (scriptName.getJavaObject() instanceof SectionCommand.Section section) {
+            // Methods with a result need it before returning, so those run the section inline.
+            if (method.getReturnType() != void.class) {
+                return (proxy, m, args) -> returnValue(m, section.call(args));
+            }
+            return (proxy, m, args) -> {
+                section.run(args);
+                return null;
+            };
+        }
+        return (proxy, m, args) -> {
+            Debug.echoError("Proxy handler refers to missing script: " + scriptName);
+            return null;
+        };
+    }
+
+    // Runs a task script for each call. The container and its definition names are kept until a reload replaces the container.
+    private static final class ScriptHandler implements Handler {
+        private final String script;
+        private final ElementTag methodName;
+        private final ScriptEntryData entryData;
+        private volatile Prepared prepared;
+
+        private record Prepared(ScriptContainer container, String[] names) {
+        }
+
+        ScriptHandler(String script, ElementTag methodName, ScriptEntryData entryData) {
+            this.script = script;
+            this.methodName = methodName;
+            this.entryData = entryData;
+        }
+
+        private Prepared prepare() {
+            ScriptContainer container = ScriptRegistry.getScriptContainer(script);
+            if (container == null) {
+                return null;
+            }
+            Prepared current = prepared;
+            if (current != null && current.container == container) {
+                return current;
+            }
+            ListTag definitions = new ListTag(container.getString("definitions"));
+            current = new Prepared(container, definitions.toArray(new String[0]));
+            prepared = current;
+            return current;
+        }
 
         @Override
-            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-                String methodName = method.getName();
-                String handlerKey = methodName.toLowerCase();
-                ObjectTag scriptName = scriptHandlers.get(handlerKey);
-
-                if (scriptName == null) {
-                        if (method.isDefault() && INVOKE_DEFAULT != null) {
-                            return INVOKE_DEFAULT.invoke(this, proxy, method, args);
-                        }
-
-                    if (methodName.equals("toString") && method.getParameterCount() == 0) {
-                            return proxy.getClass().getName() + "@" + Integer.toHexString(proxy.hashCode());
-                        }
-                        if (methodName.equals("hashCode") && method.getParameterCount() == 0) {
-                            return System.identityHashCode(proxy);
-                        }
-                        if (methodName.equals("equals") && method.getParameterCount() == 1 && method.getParameterTypes()[0] == Object.class) {
-                            return proxy == args[0];
-                        }
-
-                        return null;
-                    }
-
-                int i = 0;
-
-                ListTag definitions;
-                ListTag argsList = new ListTag();
-                if (args != null) {
-                    for (Object arg : args) {
-                        argsList.addObject(new JavaReflectedObjectTag(arg));
-                    }
+        public Object handle(Object proxy, Method method, Object[] args) {
+            Prepared current = prepare();
+            if (current == null) {
+                Debug.echoError("Proxy handler refers to missing script: " + script);
+                return null;
+            }
+            InstantQueue queue = new InstantQueue("PROXY_");
+            // Entries are cloned per run by the container, since they keep per-run state.
+            queue.addEntries(current.container.getBaseEntries(entryData.clone()));
+            if (args != null) {
+                for (int i = 0; i < args.length; i++) {
+                    queue.addDefinition(i < current.names.length ? current.names[i] : String.valueOf(i + 1), new JavaReflectedObjectTag(args[i]));
                 }
+            }
+            queue.addDefinition("proxy", new JavaReflectedObjectTag(proxy));
+            queue.addDefinition("method", methodName);
+            queue.start();
+            if (method.getReturnType() == void.class) {
+                return null;
+            }
+            ListTag determinations = queue.determinations;
+            return returnValue(method, determinations == null || determinations.isEmpty() ? null : determinations.getObject(0).getJavaObject());
+        }
+    }
 
-                if (scriptName.getJavaObject() instanceof String) {
-                    ScriptContainer container = ScriptRegistry.getScriptContainer((String) scriptName.getJavaObject());
-                    definitions = new ListTag(container.getString("definitions"));
-                    ScriptEntryData data = creationEntry.entryData.clone();
-
-                    InstantQueue queue = new InstantQueue("PROXY_");
-                    queue.addEntries(container.getBaseEntries(data));
-                    for (String arg : argsList) {
-                        try {
-                            queue.addDefinition(definitions.get(i), arg);
-                        } catch (Exception e) {
-                            queue.addDefinition(String.valueOf(i + 1), arg);
-                        } i++;
-                    }
-                    queue.addDefinition("proxy", new JavaReflectedObjectTag(proxy));
-                    queue.addDefinition("method", new ElementTag(methodName));
-                    queue.start();
-                } else if (scriptName.getJavaObject() instanceof SectionCommand.Section section) {
-                    section.run(args);
-                } else {
-                    Debug.echoError("Proxy handler refers to missing script: " + scriptName);
-                    return null;
-                }
-                return proxy;
+    // Converts a determination to the method's return type; nothing determined gives null, or zero/false for primitives.
+    private static Object returnValue(Method method, Object result) {
+        Class<?> type = method.getReturnType();
+        Object value = JavaExpressionEngine.ReflectionUtil.adaptArgument(type, result);
+        if (value == null && type.isPrimitive()) {
+            return Array.get(Array.newInstance(type, 1), 0);
+        }
+        return value;
+    }
+
+    private record DenizenInvocationHandler(Map<Method, Handler> dispatch,
+                                            Map<String, ObjectTag> scriptHandlers,
+                                            ScriptEntry creationEntry) implements InvocationHandler {
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Handler handler = dispatch.get(method);
+            if (handler == null) {
+                // Methods declared by several of the interfaces can arrive with a different declaring class than the one listed.
+                handler = dispatch.computeIfAbsent(method, m -> resolve(m, scriptHandlers, creationEntry));
             }
+            return handler.handle(proxy, method, args);
         }
-}
\ No newline at end of file
+    }
+}
@@ -0,0 +1,58 @@
+package com.isnsest.denizen.reflect.commands;
+
+import com.denizenscript.denizencore.scripts.ScriptEntry;
+import com.denizenscript.denizencore.scripts.commands.AbstractCommand;
+import com.denizenscript.denizencore.scripts.commands.generator.ArgLinear;
+import com.denizenscript.denizencore.scripts.commands.generator.ArgName;
+import com.denizenscript.denizencore.utilities.debugging.Debug;
+import com.isnsest.denizen.reflect.util.LibraryLoader;
+
+import java.io.IOException;
+
+public class ReflectCommand extends AbstractCommand {
+
+    // @Plugin denizen-reflect
+    public ReflectCommand() {
+        setName("reflect");
+        setSyntax("reflect [library] [reload] [<name>]");
+        setRequiredArguments(3, 3);
+        isProcedural = false;
+        autoCompile();
+    }
+
+    // <--[command]
+    // @Name Reflect
+    // @Syntax reflect [library] [reload] [<name>]
+    // @Required 3
+    // @Maximum 3
+    // @Short Manages denizen-reflect at runtime.
+    // @Group denizen-reflect
+    //
+    // @Description
+    // Reloads a single external library from plugins/denizen-reflect/libs without restarting the server.
+    // The name is the jar file name without ".jar".
+    // Cached classes, methods and imports that came from the old jar are dropped and re-resolved against the new one.
+    // Other libraries that already use classes from it are reloaded along with it.
+    // Objects already created from the old jar keep working, but stay instances of the old classes.
+    //
+    // @Usage
+    // Use to pick up a rebuilt libs/my-utils.jar.
+    // - reflect library reload my-utils
+    // -->
+
+    public static void autoExecute(ScriptEntry scriptEntry,
+                                   @ArgName("target") @ArgLinear String target,
+                                   @ArgName("action") @ArgLinear String action,
+                                   @ArgName("name") @ArgLinear String name) {
+        if (!target.equalsIgnoreCase("library") || !action.equalsIgnoreCase("reload")) {
+            Debug.echoError("Unknown action: " + target + " " + action);
+            return;
+        }
+        try {
+            LibraryLoader.reloadLibrary(name);
+        }
+        catch (IOException e) {
+            Debug.echoError("Failed to reload library " + name + ": " + e.getMessage());
+        }
+    }
+}
@@ -1,6 +1,5 @@
 package com.isnsest.denizen.reflect.commands;
 
-import com.denizenscript.denizencore.objects.ObjectTag;
 import com.denizenscript.denizencore.objects.core.JavaReflectedObjectTag;
 import com.denizenscript.denizencore.objects.core.ListTag;
 import com.denizenscript.denizencore.objects.core.MapTag;
@@ -12,13 +11,21 @@ import com.denizenscript.denizencore.scripts.queues.ScriptQueue;
 import com.denizenscript.denizencore.scripts.commands.BracedCommand;
 import com.denizenscript.denizencore.tags.TagContext;
 import com.denizenscript.denizencore.utilities.ScriptUtilities;
-import com.denizenscript.denizencore.utilities.text.StringHolder;
+import com.denizenscript.denizencore.utilities.debugging.Debug;
+import com.isnsest.denizen.reflect.DenizenReflect;
+import com.isnsest.denizen.reflect.util.ExecutionGovernor;
+import com.isnsest.denizen.reflect.util.SharedDefinitions;
+import org.bukkit.Bukkit;
 
 import static com.isnsest.denizen.reflect.util.JavaExpressionEngine.wrapObject;
 
 import java.util.List;
-import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 
 public class SectionCommand extends BracedCommand {
@@ -41,28 +48,38 @@ public class SectionCommand extends BracedCommand {
     // @Group denizen-reflect
     //
     // @Description
-    // A group of commands inside.
+    // A group of commands inside, stored in a definition so Java code can run it later.
+    // From Java, run(...) starts it in its own queue, while call(...) runs it to the end right away and returns
+    // what it determined. Proxies use call(...) for interface methods that return a value.
+    // call(...) always runs the section on the main thread: from another thread it waits for the main thread to pick it up.
+    // Do not call it from work the main thread is waiting on (a parallel stream, or a future joined on the main thread):
+    // the main thread can never get to it, so once it has been stuck for sections.call-blocked-millis (a second by default)
+    // the call gives up, logs an error and returns null. Setting it to 0 waits forever instead.
+    // Each run counts towards the limits in the config (limits:), shared with async-while loops.
     //
     // @Usage
     // - section:
     //     - narrate 123
     // -->
 
+    private static final long MAIN_POLL_MILLIS = 50;
+    // How long the main thread may stay blocked before an off-thread call gives up; 0 never gives up. Set from the config.
+    public static long callBlockedLimitNanos = 1_000_000_000L;
+
     public static class Section {
         public List<ScriptEntry> directEntries;
         public ContextSource contextSource;
         public TagContext context;
         public String queueId;
+        public String script;
         public ScriptEntryData entryData;
         public MapTag defMap;
         public ListTag definitions;
 
-        @SuppressWarnings("unused")
-        public void run(Object... def) {
-            Consumer<ScriptQueue> configure = (queue) -> {
-                for (Map.Entry<StringHolder, ObjectTag> object : defMap.entrySet()) {
-                    queue.addDefinition(object.getKey().toString(), object.getValue());
-                }
+        private Consumer<ScriptQueue> configure(Object[] def) {
+            return (queue) -> {
+                // Runs that only read definitions share the captured map; the first write copies it.
+                queue.definitions = SharedDefinitions.share(defMap);
                 if (def != null) {
                     int i = 0;
                     for (Object object : def) {
@@ -74,9 +91,85 @@ public class SectionCommand extends BracedCommand {
                     }
                 }
             };
+        }
 
-            ScriptUtilities.createAndStartQueueArbitrary(queueId, directEntries, entryData, contextSource, configure);
+        @SuppressWarnings("unused")
+        public void run(Object... def) {
+            Consumer<ScriptQueue> configure = configure(def).andThen(queue -> queue.callBack(() -> ExecutionGovernor.release(script)));
+            ExecutionGovernor.Admission admission = ExecutionGovernor.submit(script,
+                    () -> ScriptUtilities.createAndStartQueueArbitrary(queueId, directEntries, entryData, contextSource, configure));
+            if (admission == ExecutionGovernor.Admission.REJECTED) {
+                Debug.echoError("Too many async loops and sections are running, not running section " + queueId + ". See <reflect_limits>.");
+            }
+
+        }
 
+        // Runs the section to completion before returning and gives back its first determination as a Java object,
+        // or null if it determined nothing or is still waiting. Off the main thread, the caller blocks while it runs there,
+        // unless the main thread stays blocked itself, which means it is most likely waiting on the caller.
+        // Calls always finish before returning, so they are not counted by the execution limits.
+        @SuppressWarnings("unused")
+        public Object call(Object... def) {
+            if (!Bukkit.isPrimaryThread()) {
+                CompletableFuture<Object> result = new CompletableFuture<>();
+                AtomicBoolean claimed = new AtomicBoolean();
+                Bukkit.getScheduler().runTask(DenizenReflect.instance, () -> {
+                    if (!claimed.compareAndSet(false, true)) return;
+                    try {
+                        result.complete(call(def));
+                    }
+                    catch (Throwable e) {
+                        result.completeExceptionally(e);
+                    }
+                });
+                try {
+                    return awaitMain(result, claimed);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+                catch (ExecutionException e) {
+                    Debug.echoError("Section " + queueId + " failed:");
+                    Debug.echoError(e.getCause());
+                    return null;
+                }
+            }
+            ScriptQueue[] holder = new ScriptQueue[1];
+            ScriptUtilities.createAndStartQueueArbitrary(queueId, directEntries, entryData, contextSource, configure(def).andThen(queue -> holder[0] = queue));
+            ListTag determinations = holder[0] == null ? null : holder[0].determinations;
+            if (determinations == null || determinations.isEmpty()) {
+                return null;
+            }
+            return determinations.getObject(0).getJavaObject();
+        }
+
+        // A server waiting for its next tick is in TIMED_WAITING; untimed waits and monitors mean the main thread is stuck
+        // in a join or lock. If it stays that way before the task starts, the task is withdrawn instead of deadlocking.
+        private Object awaitMain(CompletableFuture<Object> result, AtomicBoolean claimed) throws InterruptedException, ExecutionException {
+            long blockedSince = 0;
+            while (true) {
+                try {
+                    return result.get(MAIN_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                catch (TimeoutException ignored) {}
+                if (claimed.get() || callBlockedLimitNanos <= 0) continue;
+                Thread.State state = DenizenReflect.mainThread == null ? Thread.State.RUNNABLE : DenizenReflect.mainThread.getState();
+                if (state != Thread.State.WAITING && state != Thread.State.BLOCKED) {
+                    blockedSince = 0;
+                    continue;
+                }
+                long now = System.nanoTime();
+                if (blockedSince == 0) {
+                    blockedSince = now;
+                }
+                else if (now - blockedSince >= callBlockedLimitNanos && claimed.compareAndSet(false, true)) {
+                    Debug.echoError("Section " + queueId + " was called off the main thread while the main thread was blocked,"
+                            + " most likely waiting on the caller; it was not run and null was returned."
+                            + " Raise sections.call-blocked-millis if the main thread was only busy.");
+                    return null;
+                }
+            }
         }
 
     }
@@ -90,9 +183,10 @@ public class SectionCommand extends BracedCommand {
         Section section = new Section();
         section.directEntries = getBracedCommandsDirect(scriptEntry, scriptEntry);
         section.queueId = "SECTION_" + scriptEntry.getScript().getContainer().getName();
+        section.script = ExecutionGovernor.scriptOf(scriptEntry);
         section.entryData = scriptEntry.entryData;
         section.contextSource = scriptEntry.context.contextSource;
-        section.defMap = scriptEntry.queue.definitions.duplicate();
+        section.defMap = SharedDefinitions.snapshot(scriptEntry.queue);
         section.definitions = definitions;
         section.context = scriptEntry.context;
 
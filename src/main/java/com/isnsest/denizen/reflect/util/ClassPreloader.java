@@ -0,0 +1,53 @@
+package com.isnsest.denizen.reflect.util;
+
+import com.denizenscript.denizencore.utilities.debugging.Debug;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class ClassPreloader {
+
+    public static boolean enabled = false;
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Denizen-Reflect-Preload");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    private static Future<?> running;
+
+    // Indexes the members of every imported class off the main thread, which also makes the JVM link them.
+    // Classes are never initialized here: a static initializer may touch the Bukkit API, which must not happen
+    // off the main thread, and a failed one would leave the class unusable. They still initialize in the first
+    // invoke that needs them.
+    public static synchronized void schedule() {
+        if (!enabled) return;
+        if (running != null) running.cancel(true);
+        Set<Class<?>> classes = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (JavaExpressionEngine.ImportContext context : JavaExpressionEngine.importContexts.values()) {
+            classes.addAll(context.imports.values());
+        }
+        if (classes.isEmpty()) return;
+        running = executor.submit(() -> run(classes));
+    }
+
+    private static void run(Set<Class<?>> classes) {
+        long start = System.nanoTime();
+        int loaded = 0;
+        for (Class<?> type : classes) {
+            if (Thread.currentThread().isInterrupted()) return;
+            try {
+                JavaExpressionEngine.ReflectionUtil.prelink(type);
+                loaded++;
+            }
+            catch (Throwable e) {
+                Debug.log("denizen-reflect", "Could not preload " + type.getName() + ": " + e);
+            }
+        }
+        Debug.log("denizen-reflect", "Preloaded " + loaded + " imported classes in " + (System.nanoTime() - start) / 1_000_000 + "ms");
+    }
+}
@@ -0,0 +1,231 @@
+package com.isnsest.denizen.reflect.util;
+
+import com.denizenscript.denizencore.objects.ArgumentHelper;
+import com.denizenscript.denizencore.objects.ObjectTag;
+import com.denizenscript.denizencore.scripts.ScriptEntry;
+import com.denizenscript.denizencore.scripts.commands.queue.IfCommand;
+import com.denizenscript.denizencore.tags.ParseableTag;
+import com.denizenscript.denizencore.tags.TagContext;
+import com.denizenscript.denizencore.tags.TagManager;
+import com.denizenscript.denizencore.utilities.CoreUtilities;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// An 'if'-style comparison compiled once into a tree with pre-parsed tags, for loops that check it every pass.
+// Handles ==, !=, <, <=, >, >=, !, &&, || and standalone parentheses; anything else (matches, attached
+// parentheses, non-numeric ordering) is left to Denizen's ArgComparer so the result is always the same.
+public final class CompiledCondition {
+
+    private final List<String> args;
+    private final Node root;
+
+    private CompiledCondition(List<String> args, Node root) {
+        this.args = args;
+        this.root = root;
+    }
+
+    public static CompiledCondition compile(List<String> args, TagContext context) {
+        Node root;
+        try {
+            Parser parser = new Parser(args, context);
+            root = parser.or();
+            if (parser.pos != args.size()) root = null;
+        }
+        catch (Unsupported e) {
+            root = null;
+        }
+        return new CompiledCondition(new ArrayList<>(args), root);
+    }
+
+    // A condition that only reads definitions (<[name]>) and plain values, so it can be checked off the main thread
+    // against a map of Java values. Returns null for anything that would need Denizen's tag engine.
+    public static CompiledCondition compileDefinitions(List<String> args) {
+        try {
+            Parser parser = new Parser(args, null);
+            Node root = parser.or();
+            return parser.pos == args.size() ? new CompiledCondition(new ArrayList<>(args), root) : null;
+        }
+        catch (Unsupported e) {
+            return null;
+        }
+    }
+
+    public boolean test(ScriptEntry entry) {
+        if (root != null) {
+            try {
+                return root.test(entry.getContext(), null);
+            }
+            catch (Unsupported ignored) {}
+        }
+        return new IfCommand.ArgComparer().compare(new ArrayList<>(args), entry);
+    }
+
+    // Only for conditions made by compileDefinitions.
+    public boolean test(Map<String, Object> definitions) {
+        try {
+            return root.test(null, definitions);
+        }
+        catch (Unsupported e) {
+            throw new IllegalArgumentException("Cannot compare '" + String.join(" ", args) + "' without Denizen's comparer (non-numeric ordering)");
+        }
+    }
+
+    private static final class Unsupported extends RuntimeException {
+        static final Unsupported INSTANCE = new Unsupported();
+
+        private Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    // Values come from tags in the context, or from the definitions map when one is given.
+    private interface Node {
+        boolean test(TagContext context, Map<String, Object> definitions);
+    }
+
+    private record Or(Node left, Node right) implements Node {
+        public boolean test(TagContext context, Map<String, Object> definitions) {
+            return left.test(context, definitions) || right.test(context, definitions);
+        }
+    }
+
+    private record And(Node left, Node right) implements Node {
+        public boolean test(TagContext context, Map<String, Object> definitions) {
+            return left.test(context, definitions) && right.test(context, definitions);
+        }
+    }
+
+    private record Not(Node inner) implements Node {
+        public boolean test(TagContext context, Map<String, Object> definitions) {
+            return !inner.test(context, definitions);
+        }
+    }
+
+    private record Truthy(Value value) implements Node {
+        public boolean test(TagContext context, Map<String, Object> definitions) {
+            return CoreUtilities.equalsIgnoreCase(value.get(context, definitions), "true");
+        }
+    }
+
+    private record Compare(Value left, String operator, Value right) implements Node {
+        public boolean test(TagContext context, Map<String, Object> definitions) {
+            String a = left.get(context, definitions);
+            String b = right.get(context, definitions);
+            boolean numbers = ArgumentHelper.matchesDouble(a) && ArgumentHelper.matchesDouble(b);
+            switch (operator) {
+                case "==": return numbers ? Double.parseDouble(a) == Double.parseDouble(b) : CoreUtilities.equalsIgnoreCase(a, b);
+                case "!=": return numbers ? Double.parseDouble(a) != Double.parseDouble(b) : !CoreUtilities.equalsIgnoreCase(a, b);
+            }
+            if (!numbers) throw Unsupported.INSTANCE;
+            double x = Double.parseDouble(a), y = Double.parseDouble(b);
+            switch (operator) {
+                case "<": return x < y;
+                case "<=": return x <= y;
+                case ">": return x > y;
+                default: return x >= y;
+            }
+        }
+    }
+
+    // Plain text is kept as is; text with tags is parsed once and only re-evaluated on each check.
+    // A definitions-only condition keeps the definition name instead of a parsed tag.
+    private record Value(String raw, ParseableTag tag, String definition) {
+        String get(TagContext context, Map<String, Object> definitions) {
+            if (definitions != null && definition != null) return String.valueOf(definitions.get(definition));
+            if (tag == null) return raw;
+            ObjectTag result = tag.parse(context);
+            return result == null ? "null" : result.identify();
+        }
+    }
+
+    private static final Pattern DEFINITION = Pattern.compile("<\\[([^\\[\\]<>]+)]>");
+
+    private static final class Parser {
+        private final List<String> args;
+        private final TagContext context;
+        int pos;
+
+        Parser(List<String> args, TagContext context) {
+            this.args = args;
+            this.context = context;
+        }
+
+        private String peek() {
+            return pos < args.size() ? args.get(pos) : null;
+        }
+
+        Node or() {
+            Node left = and();
+            while ("||".equals(peek())) {
+                pos++;
+                left = new Or(left, and());
+            }
+            return left;
+        }
+
+        Node and() {
+            Node left = unary();
+            while ("&&".equals(peek())) {
+                pos++;
+                left = new And(left, unary());
+            }
+            return left;
+        }
+
+        Node unary() {
+            String arg = peek();
+            if (arg == null) throw Unsupported.INSTANCE;
+            if (arg.equals("(")) {
+                pos++;
+                Node inner = or();
+                if (!")".equals(peek())) throw Unsupported.INSTANCE;
+                pos++;
+                return inner;
+            }
+            if (arg.startsWith("(") || arg.endsWith(")") || isOperator(arg)) throw Unsupported.INSTANCE;
+            pos++;
+            String op = peek();
+            if (op != null && isComparison(op)) {
+                if (arg.startsWith("!")) throw Unsupported.INSTANCE;
+                pos++;
+                String right = peek();
+                if (right == null || isOperator(right) || right.equals("(") || right.equals(")")) throw Unsupported.INSTANCE;
+                pos++;
+                return new Compare(value(arg), op, value(right));
+            }
+            if (op != null && !op.equals("&&") && !op.equals("||") && !op.equals(")")) throw Unsupported.INSTANCE;
+            if (arg.startsWith("!") && arg.length() > 1) {
+                return new Not(new Truthy(value(arg.substring(1))));
+            }
+            return new Truthy(value(arg));
+        }
+
+        // Without a context only plain text and whole <[definition]> tags are accepted.
+        private Value value(String text) {
+            if (text.indexOf('<') < 0) return new Value(text, null, null);
+            if (context == null) {
+                Matcher matcher = DEFINITION.matcher(text);
+                if (!matcher.matches()) throw Unsupported.INSTANCE;
+                return new Value(text, null, matcher.group(1));
+            }
+            ParseableTag tag = TagManager.parseTextToTag(text, context);
+            if (tag == null) throw Unsupported.INSTANCE;
+            return new Value(text, tag, null);
+        }
+
+        private static boolean isComparison(String arg) {
+            return switch (arg) {
+                case "==", "!=", "<", "<=", ">", ">=" -> true;
+                default -> false;
+            };
+        }
+
+        private static boolean isOperator(String arg) {
+            return isComparison(arg) || arg.equals("&&") || arg.equals("||");
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.isnsest.denizen.reflect.util;
+
+import com.denizenscript.denizencore.objects.core.ElementTag;
+import com.denizenscript.denizencore.objects.core.MapTag;
+import com.denizenscript.denizencore.scripts.ScriptEntry;
+import com.denizenscript.denizencore.utilities.debugging.Debug;
+import com.isnsest.denizen.reflect.DenizenReflect;
+import org.bukkit.Bukkit;
+
+import java.util.*;
+
+// Caps how many async loops and sections may run at once, in total and per script.
+// Work over a cap waits in a bounded FIFO queue (or is dropped with the reject policy) and starts when a slot frees up.
+// No caps are set by default; servers opt in through limits: in the config.
+public final class ExecutionGovernor {
+
+    public enum Policy { DELAY, REJECT }
+
+    public enum Admission { STARTED, QUEUED, REJECTED }
+
+    public static int maxRunning = 0;
+    public static int maxPerScript = 0;
+    public static int maxPending = 1024;
+    public static Policy policy = Policy.DELAY;
+
+    private record Pending(String script, Runnable start) {
+    }
+
+    private static final Map<String, Integer> running = new HashMap<>();
+    private static final ArrayDeque<Pending> pending = new ArrayDeque<>();
+    private static int total;
+    private static long started;
+    private static long rejected;
+    private static boolean warnedDelay;
+
+    private ExecutionGovernor() {
+    }
+
+    // Runs start right away if both caps allow it, otherwise queues or drops it.
+    // Whatever start launches must call release(script) exactly once when it ends.
+    // Queued work never starts before the caller's current script entry has finished.
+    public static Admission submit(String script, Runnable start) {
+        synchronized (ExecutionGovernor.class) {
+            if (!hasRoom(script)) {
+                if (policy == Policy.REJECT || pending.size() >= maxPending) {
+                    rejected++;
+                    return Admission.REJECTED;
+                }
+                pending.add(new Pending(script, start));
+                if (!warnedDelay) {
+                    warnedDelay = true;
+                    Debug.log("denizen-reflect", "Execution limits reached, script " + script
+                            + " now waits for a free slot. Later delays are not logged; see <reflect_limits>.");
+                }
+                return Admission.QUEUED;
+            }
+            acquire(script);
+        }
+        launch(script, start);
+        return Admission.STARTED;
+    }
+
+    public static String scriptOf(ScriptEntry scriptEntry) {
+        return scriptEntry != null && scriptEntry.getScript() != null ? scriptEntry.getScript().getContainer().getName() : "<none>";
+    }
+
+    public static void release(String script) {
+        List<Pending> ready = new ArrayList<>();
+        synchronized (ExecutionGovernor.class) {
+            Integer count = running.get(script);
+            if (count == null) return;
+            if (count <= 1) running.remove(script);
+            else running.put(script, count - 1);
+            total--;
+            for (Iterator<Pending> it = pending.iterator(); it.hasNext() && (maxRunning <= 0 || total < maxRunning); ) {
+                Pending next = it.next();
+                if (!hasRoom(next.script)) continue;
+                it.remove();
+                acquire(next.script);
+                ready.add(next);
+            }
+        }
+        if (ready.isEmpty()) return;
+        // Queues are started on the main thread; thread-mode loops end on their own thread.
+        Runnable startAll = () -> ready.forEach(next -> launch(next.script, next.start));
+        if (Bukkit.isPrimaryThread()) startAll.run();
+        else Bukkit.getScheduler().runTask(DenizenReflect.instance, startAll);
+    }
+
+    private static boolean hasRoom(String script) {
+        return (maxRunning <= 0 || total < maxRunning) && (maxPerScript <= 0 || running.getOrDefault(script, 0) < maxPerScript);
+    }
+
+    private static void acquire(String script) {
+        running.merge(script, 1, Integer::sum);
+        total++;
+        started++;
+    }
+
+    private static void launch(String script, Runnable start) {
+        try {
+            start.run();
+        }
+        catch (Throwable e) {
+            release(script);
+            throw e;
+        }
+    }
+
+    public static synchronized MapTag counters() {
+        MapTag map = new MapTag();
+        map.putObject("running", new ElementTag(total));
+        map.putObject("pending", new ElementTag(pending.size()));
+        map.putObject("started", new ElementTag(started));
+        map.putObject("rejected", new ElementTag(rejected));
+        map.putObject("max_running", new ElementTag(maxRunning));
+        map.putObject("max_per_script", new ElementTag(maxPerScript));
+        map.putObject("max_pending", new ElementTag(maxPending));
+        map.putObject("policy", new ElementTag(policy.name().toLowerCase()));
+        MapTag scripts = new MapTag();
+        for (Map.Entry<String, Integer> entry : running.entrySet()) {
+            scripts.putObject(entry.getKey(), new ElementTag(entry.getValue()));
+        }
+        map.putObject("scripts", scripts);
+        return map;
+    }
+}
@@ -0,0 +1,125 @@
+package com.isnsest.denizen.reflect.util;
+
+import com.denizenscript.denizencore.utilities.debugging.Debug;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class ExpressionPrecompiler {
+
+    public static boolean enabled = true;
+
+    private static final Pattern INVOKE_COMMAND = Pattern.compile("^\\s*-\\s*~?invoke\\s+(.+?)\\s*$", Pattern.CASE_INSENSITIVE);
+    private static final String INVOKE_TAG = "<invoke[";
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Denizen-Reflect-Precompile");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    private static Future<?> running;
+
+    // Scripts are keyed by their path relative to the scripts folder, the same key used for import contexts.
+    public static synchronized void schedule(Map<String, Path> scripts) {
+        if (!enabled || scripts.isEmpty()) return;
+        if (running != null) running.cancel(true);
+        Map<String, Path> snapshot = new LinkedHashMap<>(scripts);
+        running = executor.submit(() -> run(snapshot));
+    }
+
+    private static void run(Map<String, Path> scripts) {
+        long start = System.nanoTime();
+        int compiled = 0;
+        Map<String, Set<String>> report = new TreeMap<>();
+
+        for (Map.Entry<String, Path> script : scripts.entrySet()) {
+            if (Thread.currentThread().isInterrupted()) return;
+            JavaExpressionEngine.ImportContext imports = JavaExpressionEngine.importContexts
+                    .getOrDefault(script.getKey(), JavaExpressionEngine.ImportContext.EMPTY);
+            List<String> unresolved = new ArrayList<>();
+            try {
+                for (String expression : findExpressions(script.getValue())) {
+                    if (!JavaExpressionEngine.precompile(expression, imports, unresolved)) {
+                        Debug.log("denizen-reflect", "Expression cache is full, stopped precompiling at " + script.getKey());
+                        log(compiled, report, start);
+                        return;
+                    }
+                    compiled++;
+                }
+            }
+            catch (IOException ignored) {}
+            if (!unresolved.isEmpty()) {
+                report.computeIfAbsent(script.getKey(), k -> new TreeSet<>()).addAll(unresolved);
+            }
+        }
+        log(compiled, report, start);
+    }
+
+    private static void log(int compiled, Map<String, Set<String>> report, long start) {
+        for (Map.Entry<String, Set<String>> entry : report.entrySet()) {
+            for (String missing : entry.getValue()) {
+                Debug.log("denizen-reflect", "Unresolved " + missing + " (file: " + entry.getKey() + ")");
+            }
+        }
+        Debug.log("denizen-reflect", "Precompiled " + compiled + " expressions in "
+                + (System.nanoTime() - start) / 1_000_000 + "ms, " + report.size() + " file(s) with unresolved references");
+    }
+
+    // Only expressions without Denizen tags are collected: tags are filled in before the engine sees the text,
+    // so their parse cache key is not known until the script actually runs.
+    static List<String> findExpressions(Path file) throws IOException {
+        List<String> out = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Matcher matcher = INVOKE_COMMAND.matcher(line);
+                if (matcher.matches()) {
+                    addExpression(out, unquote(matcher.group(1)));
+                }
+                int idx = 0;
+                while ((idx = line.indexOf(INVOKE_TAG, idx)) >= 0) {
+                    int begin = idx + INVOKE_TAG.length();
+                    int end = closingBracket(line, begin);
+                    if (end < 0) break;
+                    addExpression(out, line.substring(begin, end));
+                    idx = end + 1;
+                }
+            }
+        }
+        return out;
+    }
+
+    private static void addExpression(List<String> out, String expression) {
+        if (!expression.isEmpty() && expression.indexOf('<') < 0) {
+            out.add(expression);
+        }
+    }
+
+    private static int closingBracket(String line, int from) {
+        int depth = 1;
+        for (int i = from; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '[') depth++;
+            else if (c == ']' && --depth == 0) return i;
+        }
+        return -1;
+    }
+
+    private static String unquote(String s) {
+        if (s.length() >= 2 && (s.charAt(0) == '"' || s.charAt(0) == '\'') && s.charAt(s.length() - 1) == s.charAt(0)) {
+            return s.substring(1, s.length() - 1);
+        }
+        return s;
+    }
+}
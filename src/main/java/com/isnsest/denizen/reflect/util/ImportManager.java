@@ -5,27 +5,56 @@ import com.denizenscript.denizencore.events.core.PreScriptReloadScriptEvent;
 import com.denizenscript.denizencore.events.core.ScriptGeneratesErrorScriptEvent;
 import com.denizenscript.denizencore.utilities.debugging.Debug;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.zip.CRC32C;
 
 public class ImportManager {
 
-    private static final Path root = Paths.get("plugins/Denizen/scripts");
+    static final Path root = Paths.get("plugins/Denizen/scripts");
 
     private static PreScriptReloadScriptEvent pre;
     private static ScriptGeneratesErrorScriptEvent err;
 
-    public static ScriptEvent runImport() {
+    // A script named like this contributes its import: block to every script in its folder and all subfolders.
+    // The one at the scripts root applies project-wide, including to expressions that run outside any script.
+    public static final String FOLDER_IMPORTS = "imports.dsc";
 
-        JavaExpressionEngine.clearAllImports();
+    // Per-file state from the last scan, so a reload only re-parses scripts that actually changed.
+    // The hash covers the import block only, since nothing else in a script affects imports.
+    private static final Map<Path, ScriptImports> index = new HashMap<>();
 
-        try (var walk = Files.walk(root)) {
-            walk.filter(f -> f.toString().toLowerCase().endsWith(".dsc"))
-                    .forEach(ImportManager::parseFile);
-        }
-        catch (IOException ignored) {}
+    private record ScriptImports(long modified, long size, long hash, Map<String, String> imports) {
+    }
+
+    private record ScanResult(Path file, ScriptImports state) {
+    }
+
+    // Effective import layers per file, outermost folder first and the file's own block last.
+    private static final Map<Path, List<Map<String, String>>> layers = new HashMap<>();
+    private static List<Map<String, String>> globalLayers = List.of();
+
+    // Identical layer stacks share one resolved ImportContext across every file that ends up with them.
+    private record SharedImports(JavaExpressionEngine.ImportContext context, List<String> missing) {
+    }
+
+    private static final Map<List<Map<String, String>>, SharedImports> interned = new HashMap<>();
+
+    private static final ForkJoinPool scanPool = new ForkJoinPool(Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), 8)));
+
+    public static ScriptEvent runImport() {
+
+        JavaExpressionEngine.forgetMissingClasses();
+        load();
 
         try {
             return pre != null ? pre.fire() : null;
@@ -34,7 +63,199 @@ public class ImportManager {
         return null;
     }
 
-    public static void registerEventHooks() {
+    // Scans imports and starts the background preload and precompile passes, without firing the reload event.
+    public static void load() {
+        scan();
+        warm();
+    }
+
+    public static void warm() {
+        ClassPreloader.schedule();
+        ExpressionPrecompiler.schedule(scripts());
+    }
+
+    public static synchronized void scan() {
+        List<Path> files = listScripts(root);
+        refresh(files, files);
+    }
+
+    private static synchronized Map<String, Path> scripts() {
+        Map<String, Path> out = new TreeMap<>();
+        for (Path file : index.keySet()) {
+            out.put(relative(file), file);
+        }
+        return out;
+    }
+
+    // Re-reads only the given paths (files or whole folders) and republishes the contexts they affect.
+    public static synchronized void refresh(Collection<Path> touched) {
+        Set<Path> files = new HashSet<>(index.keySet());
+        List<Path> toParse = new ArrayList<>();
+        for (Path path : touched) {
+            if (Files.isDirectory(path)) {
+                toParse.addAll(listScripts(path));
+            }
+            else if (Files.isRegularFile(path)) {
+                if (isScript(path)) toParse.add(path);
+            }
+            else {
+                files.removeIf(f -> f.startsWith(path));
+            }
+        }
+        files.addAll(toParse);
+        refresh(new ArrayList<>(files), toParse);
+    }
+
+    // Re-resolves every import against the current class loaders, e.g. after a library was swapped out.
+    static synchronized void relink() {
+        interned.clear();
+        layers.clear();
+        globalLayers = List.of();
+        refresh(new ArrayList<>(index.keySet()), List.of());
+    }
+
+    static boolean isScript(Path file) {
+        return file.toString().toLowerCase().endsWith(".dsc");
+    }
+
+    private static List<Path> listScripts(Path dir) {
+        try (var walk = Files.walk(dir)) {
+            return walk.filter(ImportManager::isScript).toList();
+        }
+        catch (IOException ignored) {
+            return Collections.emptyList();
+        }
+    }
+
+    private static void refresh(List<Path> files, Collection<Path> toParse) {
+        Map<Path, Callable<ScanResult>> tasks = new LinkedHashMap<>();
+        for (Path file : toParse) {
+            tasks.put(file, () -> parseFile(file));
+        }
+        for (ScanResult result : invokeAll(tasks, ImportManager::relative)) {
+            index.put(result.file, result.state);
+        }
+
+        Set<Path> seen = new HashSet<>(files);
+        index.keySet().retainAll(seen);
+        Set<String> removed = new HashSet<>();
+        Iterator<Path> it = layers.keySet().iterator();
+        while (it.hasNext()) {
+            Path file = it.next();
+            if (!seen.contains(file)) {
+                removed.add(relative(file));
+                it.remove();
+            }
+        }
+
+        Map<Path, List<Map<String, String>>> changed = new HashMap<>();
+        for (Path file : files) {
+            ScriptImports state = index.get(file);
+            if (state == null) continue;
+            List<Map<String, String>> effective = layersFor(file, state.imports);
+            if (!effective.equals(layers.get(file))) {
+                changed.put(file, effective);
+            }
+        }
+        List<Map<String, String>> global = layersFor(null, Map.of());
+        boolean globalChanged = !global.equals(globalLayers);
+        layers.putAll(changed);
+        globalLayers = global;
+
+        Set<List<Map<String, String>>> live = new HashSet<>(layers.values());
+        live.add(globalLayers);
+        interned.keySet().retainAll(live);
+
+        Map<List<Map<String, String>>, Callable<Map.Entry<List<Map<String, String>>, SharedImports>>> resolve = new HashMap<>();
+        for (List<Map<String, String>> stack : live) {
+            if (!stack.isEmpty() && !interned.containsKey(stack)) {
+                resolve.put(stack, () -> Map.entry(stack, resolveImports(stack)));
+            }
+        }
+        Function<List<Map<String, String>>, String> filesUsing = stack -> {
+            List<String> users = new ArrayList<>();
+            if (stack.equals(globalLayers)) users.add("<global>");
+            for (Map.Entry<Path, List<Map<String, String>>> entry : layers.entrySet()) {
+                if (entry.getValue().equals(stack)) users.add(relative(entry.getKey()));
+            }
+            return String.join(", ", users);
+        };
+        for (Map.Entry<List<Map<String, String>>, SharedImports> entry : invokeAll(resolve, filesUsing)) {
+            interned.put(entry.getKey(), entry.getValue());
+        }
+
+        Map<String, JavaExpressionEngine.ImportContext> updated = new HashMap<>();
+        for (Map.Entry<Path, List<Map<String, String>>> entry : changed.entrySet()) {
+            String rel = relative(entry.getKey());
+            SharedImports shared = interned.get(entry.getValue());
+            if (shared == null) {
+                removed.add(rel);
+                continue;
+            }
+            Map<String, String> own = index.get(entry.getKey()).imports;
+            for (String cls : shared.missing) {
+                if (own.containsKey(cls)) {
+                    Debug.echoError("Class not found: " + cls + " (file: " + rel + ")");
+                }
+            }
+            updated.put(rel, shared.context);
+        }
+        if (globalChanged) {
+            SharedImports shared = interned.get(globalLayers);
+            if (shared == null) removed.add("<global>");
+            else updated.put("<global>", shared.context);
+        }
+
+        JavaExpressionEngine.applyImports(updated, removed);
+    }
+
+    // Collects folder import blocks from the scripts root down to the file's folder, then the file's own block.
+    // A null file yields just the project-wide layer.
+    private static List<Map<String, String>> layersFor(Path file, Map<String, String> own) {
+        List<Map<String, String>> out = new ArrayList<>();
+        Path dir = file == null ? root : file.getParent();
+        for (Path d = dir; d != null; d = d.getParent()) {
+            Path folderFile = d.resolve(FOLDER_IMPORTS);
+            ScriptImports folder = folderFile.equals(file) ? null : index.get(folderFile);
+            if (folder != null && !folder.imports.isEmpty()) {
+                out.add(folder.imports);
+            }
+            if (d.equals(root)) break;
+        }
+        Collections.reverse(out);
+        if (file != null && !own.isEmpty()) {
+            out.add(own);
+        }
+        return out;
+    }
+
+    private static <K, T> List<T> invokeAll(Map<K, Callable<T>> tasks, Function<K, String> describe) {
+        List<K> keys = new ArrayList<>(tasks.keySet());
+        List<Callable<T>> calls = new ArrayList<>(keys.size());
+        for (K key : keys) calls.add(tasks.get(key));
+        List<T> out = new ArrayList<>(keys.size());
+        List<Future<T>> futures = scanPool.invokeAll(calls);
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                T result = futures.get(i).get();
+                if (result != null) out.add(result);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            catch (ExecutionException e) {
+                Debug.echoError("Failed to read imports (file: " + describe.apply(keys.get(i)) + "): " + e.getCause());
+            }
+        }
+        return out;
+    }
+
+    private static boolean hooked;
+
+    public static synchronized void registerEventHooks() {
+        if (hooked) return;
+        hooked = true;
         pre = PreScriptReloadScriptEvent.instance;
         PreScriptReloadScriptEvent.instance = new PreScriptReloadScriptEvent() {
 
@@ -77,46 +298,68 @@ public class ImportManager {
         };
     }
 
-    private static void parseFile(Path file) {
-        String rel = ImportManager.root.relativize(file).toString().replace(FileSystems.getDefault().getSeparator(), "/");
+    private static String relative(Path file) {
+        return ImportManager.root.relativize(file).toString().replace(FileSystems.getDefault().getSeparator(), "/");
+    }
 
-        try {
-            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
-            Map<String, String> map = parseImport(lines);
+    // Returns null when the file is unchanged; read errors (including non-UTF-8 text) are thrown,
+    // so invokeAll reports them with the file name.
+    private static ScanResult parseFile(Path file) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        long modified = attrs.lastModifiedTime().toMillis();
+        long size = attrs.size();
+        ScriptImports previous = index.get(file);
+        if (previous != null && previous.modified == modified && previous.size == size) return null;
+
+        CRC32C crc = new CRC32C();
+        Map<String, String> map;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            map = parseImport(reader, crc);
+        }
+        ScriptImports state = new ScriptImports(modified, size, crc.getValue(), map);
+        boolean changed = previous == null || previous.hash != state.hash || !previous.imports.equals(map);
+        return new ScanResult(file, changed ? state : new ScriptImports(modified, size, previous.hash, previous.imports));
+    }
 
+    // Flattens a layer stack into one context; inner layers are applied last so their aliases win.
+    private static SharedImports resolveImports(List<Map<String, String>> stack) {
+        JavaExpressionEngine.ImportContext ctx = new JavaExpressionEngine.ImportContext();
+        List<String> missing = new ArrayList<>();
+        for (Map<String, String> map : stack) {
             for (var e : map.entrySet()) {
                 try {
-                    JavaExpressionEngine.importClass(rel, e.getKey(), e.getValue());
+                    JavaExpressionEngine.importInto(ctx, e.getKey(), e.getValue());
                 }
                 catch (ClassNotFoundException ex) {
-                    Debug.echoError("Class not found: " + e.getKey() + " (file: " + rel + ")");
+                    missing.add(e.getKey());
                 }
                 catch (Throwable ignored) {}
             }
-
-        } catch (Exception ignored) {}
+        }
+        return new SharedImports(ctx, missing);
     }
 
-    private static Map<String, String> parseImport(List<String> lines) {
+    // Streams the file line by line and stops reading as soon as the import block ends,
+    // so the rest of the script is never decoded or kept in memory.
+    private static Map<String, String> parseImport(BufferedReader reader, CRC32C crc) throws IOException {
 
         Map<String, String> out = new HashMap<>();
 
-        int base = -1;
+        int indent = -1;
+        String raw;
 
-        for (int i = 0; i < lines.size(); i++) {
-            if (lines.get(i).trim().equalsIgnoreCase("import:")) {
-                base = i;
+        while ((raw = reader.readLine()) != null) {
+            if (raw.trim().equalsIgnoreCase("import:")) {
+                indent = indent(raw) + 1;
                 break;
             }
         }
-        if (base == -1) return out;
-
-        int indent = indent(lines.get(base)) + 1;
+        if (indent == -1) return out;
 
-        for (int i = base + 1; i < lines.size(); i++) {
-            String raw = lines.get(i);
+        while ((raw = reader.readLine()) != null) {
             if (raw.trim().isEmpty()) continue;
             if (indent(raw) < indent) break;
+            crc.update(raw.getBytes(StandardCharsets.UTF_8));
 
             String line = raw.trim();
             if (line.startsWith("#")) continue;
@@ -0,0 +1,103 @@
+package com.isnsest.denizen.reflect.util;
+
+import com.denizenscript.denizencore.utilities.debugging.Debug;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+public class ImportWatcher {
+
+    // Editors often write a file in several steps, so changes are collected until the folder is quiet for this long.
+    private static final long QUIET_MILLIS = 250;
+
+    private static WatchService service;
+    private static Thread thread;
+    private static final Map<WatchKey, Path> dirs = new ConcurrentHashMap<>();
+
+    public static synchronized void start() {
+        if (thread != null) return;
+        try {
+            service = FileSystems.getDefault().newWatchService();
+            registerAll(service, ImportManager.root);
+        }
+        catch (IOException e) {
+            Debug.echoError("Failed to watch script imports for changes:");
+            Debug.echoError(e);
+            return;
+        }
+        thread = new Thread(ImportWatcher::run, "Denizen-Reflect-Import-Watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public static synchronized void stop() {
+        if (thread == null) return;
+        thread.interrupt();
+        try {
+            service.close();
+        }
+        catch (IOException ignored) {}
+        thread = null;
+        service = null;
+        dirs.clear();
+    }
+
+    private static void run() {
+        WatchService watcher = service;
+        Set<Path> touched = new HashSet<>();
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = touched.isEmpty() ? watcher.take() : watcher.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS);
+                if (key == null) {
+                    ImportManager.refresh(touched);
+                    ClassPreloader.schedule();
+                    touched.clear();
+                    continue;
+                }
+                Path dir = dirs.get(key);
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == OVERFLOW || dir == null) {
+                        touched.add(ImportManager.root);
+                        continue;
+                    }
+                    Path path = dir.resolve((Path) event.context());
+                    if (event.kind() == ENTRY_CREATE && Files.isDirectory(path)) {
+                        registerAll(watcher, path);
+                        touched.add(path);
+                    }
+                    else if (ImportManager.isScript(path) || event.kind() == ENTRY_DELETE) {
+                        touched.add(path);
+                    }
+                }
+                if (!key.reset()) {
+                    dirs.remove(key);
+                }
+            }
+        }
+        catch (InterruptedException | ClosedWatchServiceException ignored) {}
+        catch (Throwable e) {
+            Debug.echoError("Import watcher stopped unexpectedly:");
+            Debug.echoError(e);
+        }
+    }
+
+    private static void registerAll(WatchService watcher, Path start) {
+        if (!Files.isDirectory(start)) return;
+        try (var walk = Files.walk(start)) {
+            walk.filter(Files::isDirectory).forEach(dir -> {
+                try {
+                    dirs.put(dir.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+                }
+                catch (IOException ignored) {}
+            });
+        }
+        catch (IOException ignored) {}
+    }
+}
@@ -1,8 +1,15 @@
 package com.isnsest.denizen.reflect.util;
 
+import java.io.*;
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
@@ -26,10 +33,20 @@ public final class JavaExpressionEngine {
     public static final JavaExpressionEngine INSTANCE = new JavaExpressionEngine();
 
     private static final int MAX_CACHE_SIZE = 2000;
+    // Precompiling and restoring stop here, so expressions built from tags at runtime still fit
+    // before checkCacheSize has to clear everything.
+    private static final int WARM_CACHE_LIMIT = MAX_CACHE_SIZE / 2;
+    private static final int MAX_CLASS_CACHE_SIZE = 10000;
 
     private static final Map<String, Node> parsedExpressionCache = new ConcurrentHashMap<>();
-    private static final Map<String, Class<?>> classLookupCache = new ConcurrentHashMap<>();
+    // Classes are held weakly: a class stays reachable as long as its loader is, so entries only vanish
+    // once a plugin or library loader has been dropped and can be unloaded.
+    private static final Map<String, WeakReference<Class<?>>> classLookupCache = new ConcurrentHashMap<>();
     private static final Class<?> CLASS_NOT_FOUND_MARKER = Void.class;
+    private static final WeakReference<Class<?>> CLASS_NOT_FOUND = new WeakReference<>(CLASS_NOT_FOUND_MARKER);
+
+    // Bumped whenever class resolution itself may have changed, which invalidates every type linked into parsed nodes.
+    private static volatile int linkGeneration;
 
     private static void checkCacheSize() {
         if (parsedExpressionCache.size() > MAX_CACHE_SIZE) {
@@ -37,15 +54,43 @@ public final class JavaExpressionEngine {
         }
     }
 
-    public static void importClass(String path, String className, String alias) throws ClassNotFoundException {
+    public static synchronized void importClass(String path, String className, String alias) throws ClassNotFoundException {
         INSTANCE.doImportClass(path, className, alias);
     }
 
-    public static void clearAllImports() {
-        importContexts.clear();
-        classLookupCache.clear();
+    // Called on every script reload: a class that was missing may have been added since (e.g. by a plugin loaded
+    // at runtime). Type links cache misses too, so they are all re-resolved; hits come straight from the class cache.
+    static void forgetMissingClasses() {
+        classLookupCache.values().removeIf(ref -> ref.get() == null || ref.get() == CLASS_NOT_FOUND_MARKER);
+        linkGeneration++;
+    }
+
+    // Drops everything cached from a class loader that is going away: a library being replaced, or another plugin
+    // being disabled. Misses are dropped too, since a new jar may add classes, and parsed trees go because their
+    // type links may point into the old loader.
+    public static void forgetClassLoader(ClassLoader loader) {
+        classLookupCache.values().removeIf(ref -> {
+            Class<?> cls = ref.get();
+            return cls == null || cls == CLASS_NOT_FOUND_MARKER || cls.getClassLoader() == loader;
+        });
         parsedExpressionCache.clear();
-        ReflectionUtil.clearCache();
+        ReflectionUtil.forget(loader);
+        linkGeneration++;
+        ImportManager.relink();
+    }
+
+    // Builds the next import generation on the side and swaps it in at once.
+    // Parsed expressions and reflection caches do not depend on imports, so they stay warm;
+    // nodes linked against a replaced ImportContext relink on their next evaluation.
+    // Locked like importClass, so a scan and a single import never overwrite each other's generation.
+    public static synchronized void applyImports(Map<String, ImportContext> updated, Collection<String> removed) {
+        if (updated.isEmpty() && removed.isEmpty()) return;
+        Map<String, ImportContext> next = new ConcurrentHashMap<>(importContexts);
+        for (String path : removed) {
+            next.remove((path == null || path.isEmpty()) ? "<global>" : path);
+        }
+        next.putAll(updated);
+        importContexts = next;
     }
 
     public static String unescape(String expression) {
@@ -57,7 +102,8 @@ public final class JavaExpressionEngine {
         return EscapeTagUtil.unEscape(expression);
     }
 
-    public static Object execute(String expression, ScriptEntry scriptEntry) {
+    // Path of the entry's script relative to scripts/, which is what imports are keyed by.
+    public static String scriptPath(ScriptEntry scriptEntry) {
         String path = "";
         if (scriptEntry.getScript() != null) {
             path = scriptEntry.getScript().getContainer().getRelativeFileName().replace("\\", "/");
@@ -66,6 +112,11 @@ public final class JavaExpressionEngine {
         if (scriptIdx != -1) {
             path = path.substring(scriptIdx + "scripts/".length());
         }
+        return path;
+    }
+
+    public static Object execute(String expression, ScriptEntry scriptEntry) {
+        String path = scriptPath(scriptEntry);
 
         List<String> tags = DenizenTagFinder.findTags(expression);
         if (!tags.isEmpty()) {
@@ -103,13 +154,17 @@ public final class JavaExpressionEngine {
         return new JavaReflectedObjectTag(result);
     }
 
-    public static Map<String, ImportContext> importContexts = new ConcurrentHashMap<>();
+    public static volatile Map<String, ImportContext> importContexts = new ConcurrentHashMap<>();
 
     private void doImportClass(String path, String className, String alias) throws ClassNotFoundException {
         String keyPath = (path == null || path.isEmpty()) ? "<global>" : path;
-        ImportContext ctx = importContexts.computeIfAbsent(keyPath, p -> new ImportContext());
+        // Contexts are shared between every file with the same imports, so this path gets its own copy.
+        ImportContext ctx = ImportContext.copyOf(importContexts.get(keyPath));
+        importInto(ctx, className, alias);
+        applyImports(Map.of(keyPath, ctx), List.of());
+    }
 
-        
+    static void importInto(ImportContext ctx, String className, String alias) throws ClassNotFoundException {
         if (className.endsWith(".*")) {
             String packageName = className.substring(0, className.length() - 2); 
             ctx.addStarImport(packageName);
@@ -154,6 +209,64 @@ public final class JavaExpressionEngine {
         return wrapObject(result, scriptEntry.context);
     }
 
+    // Runs a plain expression (no %templates% or Denizen tags) against the given locals and returns the raw result.
+    // No script entry is involved, so nothing reads the queue and it can be called from worker threads;
+    // assignments inside the expression go into locals.
+    public static Object evaluate(String expression, String path, Map<String, Object> locals) throws Throwable {
+        String keyPath = (path == null || path.isEmpty()) ? "<global>" : path;
+        ImportContext imports = importContexts.getOrDefault(keyPath, ImportContext.EMPTY);
+        Node root = parsedExpressionCache.computeIfAbsent(expression.trim(), k -> {
+            checkCacheSize();
+            return new Parser(k).parse();
+        });
+        return root.eval(new EvalContext(imports, null, locals));
+    }
+
+    // Parses and links an expression ahead of its first run, filling the parse cache and class lookups.
+    // Returns false once the parse cache is full; anything that cannot be resolved is added to unresolved.
+    static boolean precompile(String expression, ImportContext imports, List<String> unresolved) {
+        expression = expression.trim();
+        if (expression.length() >= 2 && expression.charAt(0) == '%' && expression.charAt(expression.length() - 1) == '%') {
+            expression = expression.substring(1, expression.length() - 1).trim();
+        }
+        List<String> parts = new ArrayList<>();
+        if (expression.indexOf('%') >= 0) {
+            int idx = 0;
+            while (true) {
+                int start = expression.indexOf('%', idx);
+                if (start < 0) break;
+                if (start + 1 < expression.length() && expression.charAt(start + 1) == '%') {
+                    idx = start + 2;
+                    continue;
+                }
+                int end = expression.indexOf('%', start + 1);
+                if (end < 0) break;
+                String inner = expression.substring(start + 1, end).trim();
+                if (inner.startsWith("<") && inner.endsWith(">")) {
+                    inner = inner.substring(1, inner.length() - 1);
+                }
+                if (!inner.isEmpty()) parts.add(inner);
+                idx = end + 1;
+            }
+        }
+        else if (!expression.isEmpty()) {
+            parts.add(expression);
+        }
+        for (String part : parts) {
+            if (parsedExpressionCache.size() >= WARM_CACHE_LIMIT) return false;
+            Node root;
+            try {
+                root = parsedExpressionCache.computeIfAbsent(part, k -> new Parser(k).parse());
+            }
+            catch (RuntimeException e) {
+                unresolved.add("syntax '" + part + "': " + e.getMessage());
+                continue;
+            }
+            root.link(imports, unresolved);
+        }
+        return true;
+    }
+
     private Object evalTemplate(String template, EvalContext ctx) throws Throwable {
         StringBuilder out = new StringBuilder();
         int idx = 0;
@@ -226,12 +339,19 @@ public final class JavaExpressionEngine {
         Object eval(EvalContext ctx) throws Throwable {
             return new Lambda(paramNames, body, ctx);
         }
+
+        @Override
+        void link(ImportContext imports, List<String> unresolved) {
+            body.link(imports, unresolved);
+        }
     }
 
     public static final class ImportContext {
         static final ImportContext EMPTY = new ImportContext(Collections.emptyMap());
         public final Map<String, Class<?>> imports;
         public final Set<String> starImports;
+        private final Map<String, Class<?>> starResolved = new ConcurrentHashMap<>();
+        private volatile int starGeneration;
 
         ImportContext() {
             this.imports = new ConcurrentHashMap<>();
@@ -243,12 +363,22 @@ public final class JavaExpressionEngine {
             this.starImports = Collections.emptySet();
         }
 
+        static ImportContext copyOf(ImportContext source) {
+            ImportContext copy = new ImportContext();
+            if (source != null) {
+                copy.imports.putAll(source.imports);
+                copy.starImports.addAll(source.starImports);
+            }
+            return copy;
+        }
+
         void addImport(String alias, Class<?> cls) {
             imports.put(alias, cls);
         }
 
         void addStarImport(String packageName) {
             starImports.add(packageName);
+            starResolved.clear();
         }
 
         public Class<?> resolveType(String name) {
@@ -259,18 +389,60 @@ public final class JavaExpressionEngine {
             
             
             if (!starImports.isEmpty()) {
+                int generation = linkGeneration;
+                if (starGeneration != generation) {
+                    starResolved.clear();
+                    starGeneration = generation;
+                }
+                Class<?> cached = starResolved.get(name);
+                if (cached != null) return cached == CLASS_NOT_FOUND_MARKER ? null : cached;
+                for (String pkg : starImports) {
+                    if (LibraryLoader.classesIn(pkg).contains(name)) {
+                        Class<?> found = findClass(pkg + "." + name);
+                        if (found != null) {
+                            starResolved.put(name, found);
+                            return found;
+                        }
+                    }
+                }
                 for (String pkg : starImports) {
-                    try {
-                        return resolveClass(pkg + "." + name);
-                    } catch (ClassNotFoundException ignored) {
-                        
+                    Class<?> found = findClass(pkg + "." + name);
+                    if (found != null) {
+                        starResolved.put(name, found);
+                        return found;
                     }
                 }
+                starResolved.put(name, CLASS_NOT_FOUND_MARKER);
             }
             return null;
         }
     }
 
+    // Caches the type a name resolves to for one ImportContext, until that context is replaced or the link generation changes.
+    private static final class TypeLink {
+        private record Link(ImportContext imports, int generation, Class<?> type) {
+        }
+
+        private final String name;
+        private Link link;
+
+        TypeLink(String name) {
+            this.name = name;
+        }
+
+        Class<?> resolve(ImportContext imports) {
+            Link current = link;
+            int generation = linkGeneration;
+            if (current == null || current.imports != imports || current.generation != generation) {
+                Class<?> type = imports.resolveType(name);
+                if (type == null) type = findClass(name);
+                current = new Link(imports, generation, type);
+                link = current;
+            }
+            return current.type;
+        }
+    }
+
     public record EvalContext(ImportContext imports, ScriptEntry scriptEntry, Map<String, Object> locals) {
         public EvalContext(ImportContext imports, ScriptEntry scriptEntry) {
             this(imports, scriptEntry, Collections.emptyMap());
@@ -603,6 +775,14 @@ public final class JavaExpressionEngine {
 
     private abstract static class Node {
         abstract Object eval(EvalContext ctx) throws Throwable;
+
+        // Resolves everything that can be resolved before the first evaluation, reporting what cannot.
+        void link(ImportContext imports, List<String> unresolved) {
+        }
+
+        Class<?> linkedClass(ImportContext imports) {
+            return null;
+        }
     }
 
     private static final class LiteralNode extends Node {
@@ -626,15 +806,22 @@ public final class JavaExpressionEngine {
             ctx.locals.put(name, value);
             return value;
         }
+
+        @Override
+        void link(ImportContext imports, List<String> unresolved) {
+            valueExpression.link(imports, unresolved);
+        }
     }
 
     private static final class CastNode extends Node {
         private final String typeName;
         private final Node target;
+        private final TypeLink typeLink;
 
         CastNode(String typeName, Node target) {
             this.typeName = typeName;
             this.target = target;
+            this.typeLink = new TypeLink(typeName);
         }
 
         @Override
@@ -654,18 +841,23 @@ public final class JavaExpressionEngine {
                 case "char": type = char.class; break;
                 case "String": type = String.class; break;
                 default:
-                    type = ctx.imports.resolveType(typeName);
-                    if (type == null) {
-                        try {
-                            type = resolveClass(typeName);
-                        } catch (ClassNotFoundException e) {
-                            throw new RuntimeException("Unknown class for cast: " + typeName);
-                        }
-                    }
+                    type = typeLink.resolve(ctx.imports);
+                    if (type == null) throw new RuntimeException("Unknown class for cast: " + typeName);
             }
 
             return ReflectionUtil.adaptArgument(type, value);
         }
+
+        @Override
+        void link(ImportContext imports, List<String> unresolved) {
+            target.link(imports, unresolved);
+            switch (typeName) {
+                case "int", "double", "float", "long", "short", "byte", "boolean", "char", "String" -> {}
+                default -> {
+                    if (typeLink.resolve(imports) == null) unresolved.add("class " + typeName);
+                }
+            }
+        }
     }
 
     private static final class BracketInitNode extends Node {
@@ -682,16 +874,13 @@ public final class JavaExpressionEngine {
         Object eval(EvalContext ctx) throws Throwable {
             Object base = target.eval(ctx);
             if (base instanceof String name) {
+                Class<?> cls = findClass(name);
+                if (cls != null) return evalJavaBracketLiteral(cls);
                 try {
-                    Class<?> cls = resolveClass(name);
-                    return evalJavaBracketLiteral(cls);
-                } catch (ClassNotFoundException ex) {
-                    try {
-                        ObjectTag tag = ObjectFetcher.pickObjectFor(name + "[" + inside + "]", ctx.scriptEntry.context);
-                        return tag.getJavaObject();
-                    } catch (Exception ex2) {
-                        return name + "[" + inside + "]";
-                    }
+                    ObjectTag tag = ObjectFetcher.pickObjectFor(name + "[" + inside + "]", ctx.scriptEntry.context);
+                    return tag.getJavaObject();
+                } catch (Exception ex) {
+                    return name + "[" + inside + "]";
                 }
             }
             if (base instanceof Class<?>) {
@@ -700,6 +889,11 @@ public final class JavaExpressionEngine {
             throw new RuntimeException("Bracket literal requires class name or string on the left, got: " + base);
         }
 
+        @Override
+        void link(ImportContext imports, List<String> unresolved) {
+            target.link(imports, unresolved);
+        }
+
         private Object evalJavaBracketLiteral(Class<?> cls) throws Throwable {
             if (inside.isEmpty()) {
                 return ReflectionUtil.construct(cls, new Object[0]);
@@ -764,25 +958,28 @@ public final class JavaExpressionEngine {
     }
 
     private static final class VariableNode extends Node {
-        private final String originalName;
-        VariableNode(String name) { this.originalName = name; }
+        private final String source;
+        private final String name;
+        private final TypeLink typeLink;
+        VariableNode(String name) {
+            this.source = name;
+            this.name = unescape(name);
+            this.typeLink = this.name.contains("@") ? null : new TypeLink(this.name);
+        }
 
         @Override
         Object eval(EvalContext ctx) throws Throwable {
-            String name = unescape(this.originalName);
-
             if (ctx.locals.containsKey(name)) {
                 return ctx.locals.get(name);
             }
 
-            if (!name.contains("@")) {
-                Class<?> imported = ctx.imports.resolveType(name);
-                if (imported != null) return imported;
-                try {
-                    return resolveClass(name);
-                } catch (ClassNotFoundException ignored) {}
+            if (typeLink != null) {
+                Class<?> cls = typeLink.resolve(ctx.imports);
+                if (cls != null) return cls;
             }
 
+            if (ctx.scriptEntry == null) return name;
+
             if (name.equals("player")) {
                 try { return Utilities.getEntryPlayer(ctx.scriptEntry).getJavaObject(); }
                 catch (Exception ignored) {}
@@ -808,6 +1005,16 @@ public final class JavaExpressionEngine {
             return name;
         }
 
+        @Override
+        void link(ImportContext imports, List<String> unresolved) {
+            if (typeLink != null) typeLink.resolve(imports);
+        }
+
+        @Override
+        Class<?> linkedClass(ImportContext imports) {
+            return typeLink != null ? typeLink.resolve(imports) : null;
+        }
+
         static Object parseLiteral(Class<?> type, String text) {
             if (text == null) return null;
             if (text.length() >= 2 && ((text.startsWith("\"") && text.endsWith("\"")) || (text.startsWith("'") && text.endsWith("'")))) {
@@ -818,41 +1025,101 @@ public final class JavaExpressionEngine {
                 if (type == int.class || type == Integer.class) return Integer.parseInt(text);
                 if (type == boolean.class || type == Boolean.class) return text.equalsIgnoreCase("true") || text.equals("1");
                 if (Number.class.isAssignableFrom(type)) return text.contains(".") ? Double.parseDouble(text) : Integer.parseInt(text);
-                if (type.isEnum()) return Enum.valueOf((Class<Enum>) type, text);
+                if (type.isEnum()) {
+                    Enum<?> constant = ReflectionUtil.enumConstant(type, text);
+                    if (constant != null) return constant;
+                }
             } catch (Exception ignored) {}
             return text;
         }
     }
 
     public static Class<?> resolveClass(String name) throws ClassNotFoundException {
-        Class<?> cached = classLookupCache.get(name);
+        Class<?> cls = findClass(name);
+        if (cls == null) throw new MissingClassException(name);
+        return cls;
+    }
+
+    public static Class<?> findClass(String name) {
+        WeakReference<Class<?>> ref = classLookupCache.get(name);
+        Class<?> cached = ref == null ? null : ref.get();
         if (cached != null) {
-            if (cached == CLASS_NOT_FOUND_MARKER) throw new ClassNotFoundException(name);
-            return cached;
+            return cached == CLASS_NOT_FOUND_MARKER ? null : cached;
+        }
+        if (classLookupCache.size() > MAX_CLASS_CACHE_SIZE) {
+            classLookupCache.clear();
+        }
+        if (!isClassName(name)) {
+            classLookupCache.put(name, CLASS_NOT_FOUND);
+            return null;
         }
         try {
-            Class<?> cls = Class.forName(name, true, LibraryLoader.getClassLoader());
-            classLookupCache.put(name, cls);
+            Class<?> cls = LibraryLoader.loadClass(name);
+            classLookupCache.put(name, new WeakReference<>(cls));
             return cls;
         } catch (ClassNotFoundException e) {
-            classLookupCache.put(name, CLASS_NOT_FOUND_MARKER);
-            throw e;
+            classLookupCache.put(name, CLASS_NOT_FOUND);
+            return null;
+        } catch (LinkageError e) {
+            // Not cached: the class exists but failed to load, which a library reload or a retry may fix.
+            return null;
+        }
+    }
+
+    // Binary class names, plus array descriptors such as [I and [Ljava.lang.String; as Class.forName accepts them.
+    private static boolean isClassName(String name) {
+        if (name.isEmpty()) return false;
+        if (name.charAt(0) == '[') {
+            int dims = 0;
+            while (dims < name.length() && name.charAt(dims) == '[') dims++;
+            if (name.length() == dims + 1) return "ZBCSIJFD".indexOf(name.charAt(dims)) >= 0;
+            return name.charAt(dims) == 'L' && name.endsWith(";") && isClassName(name.substring(dims + 1, name.length() - 1));
+        }
+        boolean segmentStart = true;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == '.') {
+                if (segmentStart) return false;
+                segmentStart = true;
+                continue;
+            }
+            if (segmentStart ? !Character.isJavaIdentifierStart(c) : !Character.isJavaIdentifierPart(c)) return false;
+            segmentStart = false;
+        }
+        return !segmentStart;
+    }
+
+    private static final class MissingClassException extends ClassNotFoundException {
+        MissingClassException(String name) {
+            super(name);
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
         }
     }
 
     private static final class NewNode extends Node {
         private final String typeName;
         private final List<Node> args;
-        NewNode(String typeName, List<Node> args) { this.typeName = typeName; this.args = args; }
+        private final TypeLink typeLink;
+        NewNode(String typeName, List<Node> args) { this.typeName = typeName; this.args = args; this.typeLink = new TypeLink(typeName); }
 
         @Override
         Object eval(EvalContext ctx) throws Throwable {
-            Class<?> type = ctx.imports.resolveType(typeName);
+            Class<?> type = typeLink.resolve(ctx.imports);
             if (type == null) type = resolveClass(typeName);
             Object[] values = new Object[args.size()];
             for (int i = 0; i < args.size(); i++) values[i] = args.get(i).eval(ctx);
             return ReflectionUtil.construct(type, values);
         }
+
+        @Override
+        void link(ImportContext imports, List<String> unresolved) {
+            if (typeLink.resolve(imports) == null && findClass(typeName) == null) unresolved.add("class " + typeName);
+            for (Node arg : args) arg.link(imports, unresolved);
+        }
     }
 
     private static final class FieldAccessNode extends Node {
@@ -865,7 +1132,8 @@ public final class JavaExpressionEngine {
             Object base = targetNode.eval(ctx);
             if (base instanceof String) {
                 String full = base + "." + fieldName;
-                try { return resolveClass(full); } catch (ClassNotFoundException ignored) { return full; }
+                Class<?> cls = findClass(full);
+                return cls != null ? cls : full;
             }
             if (base instanceof Class<?>) {
                 if (fieldName.startsWith("[") && fieldName.endsWith("]")) {
@@ -878,6 +1146,11 @@ public final class JavaExpressionEngine {
             }
             throw new RuntimeException("Cannot access field '" + fieldName + "' on null target");
         }
+
+        @Override
+        void link(ImportContext imports, List<String> unresolved) {
+            targetNode.link(imports, unresolved);
+        }
     }
 
     private static final class MethodCallNode extends Node {
@@ -897,6 +1170,16 @@ public final class JavaExpressionEngine {
             }
             return ReflectionUtil.invokeMethod(obj, methodName, values);
         }
+
+        @Override
+        void link(ImportContext imports, List<String> unresolved) {
+            target.link(imports, unresolved);
+            for (Node arg : args) arg.link(imports, unresolved);
+            Class<?> owner = target.linkedClass(imports);
+            if (owner != null && !ReflectionUtil.hasMethodNamed(owner, methodName)) {
+                unresolved.add("method " + owner.getName() + "." + methodName);
+            }
+        }
     }
 
     private static final class BlockNode extends Node {
@@ -914,67 +1197,375 @@ public final class JavaExpressionEngine {
             }
             return result;
         }
+
+        @Override
+        void link(ImportContext imports, List<String> unresolved) {
+            for (Node node : statements) node.link(imports, unresolved);
+        }
+    }
+
+    public static int saveParsedExpressions(Path file) throws IOException {
+        return ExpressionStore.save(file);
+    }
+
+    public static int loadParsedExpressions(Path file) throws IOException {
+        return ExpressionStore.load(file);
+    }
+
+    // Changes whenever an import or a library changes, so a saved cache is only reused against the same classes.
+    static long importFingerprint() {
+        long hash = LibraryLoader.fingerprint();
+        for (Map.Entry<String, ImportContext> context : new TreeMap<>(importContexts).entrySet()) {
+            hash = 31 * hash + context.getKey().hashCode();
+            for (Map.Entry<String, Class<?>> imported : new TreeMap<>(context.getValue().imports).entrySet()) {
+                hash = 31 * (31 * hash + imported.getKey().hashCode()) + imported.getValue().getName().hashCode();
+            }
+            for (String star : new TreeSet<>(context.getValue().starImports)) {
+                hash = 31 * hash + star.hashCode();
+            }
+        }
+        return hash;
+    }
+
+    // Binary form of parsedExpressionCache, so a restart starts with every expression already parsed.
+    // Trees only hold names, never resolved classes, but the file is still tied to the import and library
+    // fingerprint it was saved with and is ignored once either has changed.
+    private static final class ExpressionStore {
+        private static final int MAGIC = 0x44525843;
+        private static final int VERSION = 2;
+
+        private static final byte LITERAL = 1, ASSIGNMENT = 2, CAST = 3, BRACKET = 4, VARIABLE = 5,
+                NEW = 6, FIELD = 7, METHOD = 8, BLOCK = 9, LAMBDA = 10;
+        private static final byte NULL = 0, TRUE = 1, FALSE = 2, INT = 3, LONG = 4, DOUBLE = 5, STRING = 6;
+
+        static int save(Path file) throws IOException {
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            int count = 0;
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                Map<String, Node> snapshot = new HashMap<>(parsedExpressionCache);
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(importFingerprint());
+                out.writeInt(snapshot.size());
+                for (Map.Entry<String, Node> entry : snapshot.entrySet()) {
+                    writeString(out, entry.getKey());
+                    write(out, entry.getValue());
+                    count++;
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return count;
+        }
+
+        // Read onto the heap rather than mapped, so no mapping outlives the load and keeps the file locked
+        // (on Windows that would make the next save fail to replace it).
+        static int load(Path file) throws IOException {
+            if (!Files.isRegularFile(file)) return 0;
+            try {
+                ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file));
+                if (in.remaining() < 20 || in.getInt() != MAGIC || in.getInt() != VERSION) return 0;
+                if (in.getLong() != importFingerprint()) return 0;
+                int count = in.getInt();
+                int loaded = 0;
+                for (int i = 0; i < count && parsedExpressionCache.size() < WARM_CACHE_LIMIT; i++) {
+                    String key = readString(in);
+                    Node node = read(in);
+                    if (parsedExpressionCache.putIfAbsent(key, node) == null) loaded++;
+                }
+                return loaded;
+            }
+            catch (RuntimeException e) {
+                throw new IOException("Corrupt expression cache " + file.getFileName(), e);
+            }
+        }
+
+        private static void write(DataOutputStream out, Node node) throws IOException {
+            if (node instanceof LiteralNode n) {
+                out.writeByte(LITERAL);
+                writeLiteral(out, n.value);
+            }
+            else if (node instanceof AssignmentNode n) {
+                out.writeByte(ASSIGNMENT);
+                writeString(out, n.name);
+                write(out, n.valueExpression);
+            }
+            else if (node instanceof CastNode n) {
+                out.writeByte(CAST);
+                writeString(out, n.typeName);
+                write(out, n.target);
+            }
+            else if (node instanceof BracketInitNode n) {
+                out.writeByte(BRACKET);
+                writeString(out, n.inside);
+                write(out, n.target);
+            }
+            else if (node instanceof VariableNode n) {
+                out.writeByte(VARIABLE);
+                writeString(out, n.source);
+            }
+            else if (node instanceof NewNode n) {
+                out.writeByte(NEW);
+                writeString(out, n.typeName);
+                writeList(out, n.args);
+            }
+            else if (node instanceof FieldAccessNode n) {
+                out.writeByte(FIELD);
+                writeString(out, n.fieldName);
+                write(out, n.targetNode);
+            }
+            else if (node instanceof MethodCallNode n) {
+                out.writeByte(METHOD);
+                writeString(out, n.methodName);
+                write(out, n.target);
+                writeList(out, n.args);
+            }
+            else if (node instanceof BlockNode n) {
+                out.writeByte(BLOCK);
+                writeList(out, n.statements);
+            }
+            else if (node instanceof LambdaNode n) {
+                out.writeByte(LAMBDA);
+                out.writeInt(n.paramNames.size());
+                for (String param : n.paramNames) writeString(out, param);
+                write(out, n.body);
+            }
+            else {
+                throw new IOException("Cannot store " + node.getClass().getSimpleName());
+            }
+        }
+
+        private static Node read(ByteBuffer in) throws IOException {
+            byte type = in.get();
+            switch (type) {
+                case LITERAL: return new LiteralNode(readLiteral(in));
+                case ASSIGNMENT: { String name = readString(in); return new AssignmentNode(name, read(in)); }
+                case CAST: { String typeName = readString(in); return new CastNode(typeName, read(in)); }
+                case BRACKET: { String inside = readString(in); return new BracketInitNode(read(in), inside); }
+                case VARIABLE: return new VariableNode(readString(in));
+                case NEW: { String typeName = readString(in); return new NewNode(typeName, readList(in)); }
+                case FIELD: { String fieldName = readString(in); return new FieldAccessNode(read(in), fieldName); }
+                case METHOD: {
+                    String methodName = readString(in);
+                    Node target = read(in);
+                    return new MethodCallNode(target, methodName, readList(in));
+                }
+                case BLOCK: return new BlockNode(readList(in));
+                case LAMBDA: {
+                    int size = in.getInt();
+                    List<String> params = new ArrayList<>(size);
+                    for (int i = 0; i < size; i++) params.add(readString(in));
+                    return new LambdaNode(params, read(in));
+                }
+                default: throw new IOException("Unknown node type " + type);
+            }
+        }
+
+        private static void writeList(DataOutputStream out, List<Node> nodes) throws IOException {
+            out.writeInt(nodes.size());
+            for (Node node : nodes) write(out, node);
+        }
+
+        private static List<Node> readList(ByteBuffer in) throws IOException {
+            int size = in.getInt();
+            List<Node> out = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) out.add(read(in));
+            return out;
+        }
+
+        private static void writeLiteral(DataOutputStream out, Object value) throws IOException {
+            if (value == null) out.writeByte(NULL);
+            else if (value instanceof Boolean b) out.writeByte(b ? TRUE : FALSE);
+            else if (value instanceof Integer i) { out.writeByte(INT); out.writeInt(i); }
+            else if (value instanceof Long l) { out.writeByte(LONG); out.writeLong(l); }
+            else if (value instanceof Double d) { out.writeByte(DOUBLE); out.writeDouble(d); }
+            else if (value instanceof String s) { out.writeByte(STRING); writeString(out, s); }
+            else throw new IOException("Cannot store literal of type " + value.getClass().getName());
+        }
+
+        private static Object readLiteral(ByteBuffer in) throws IOException {
+            byte type = in.get();
+            switch (type) {
+                case NULL: return null;
+                case TRUE: return Boolean.TRUE;
+                case FALSE: return Boolean.FALSE;
+                case INT: return in.getInt();
+                case LONG: return in.getLong();
+                case DOUBLE: return in.getDouble();
+                case STRING: return readString(in);
+                default: throw new IOException("Unknown literal type " + type);
+            }
+        }
+
+        private static void writeString(DataOutputStream out, String s) throws IOException {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        private static String readString(ByteBuffer in) {
+            byte[] bytes = new byte[in.getInt()];
+            in.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
     }
 
     public static final class ReflectionUtil {
         private static final MethodHandles.Lookup ROOT_LOOKUP = MethodHandles.lookup();
-        private static final int MAX_REFLECTION_CACHE_SIZE = 10000;
+        private static final int MAX_SIGNATURES_PER_CLASS = 512;
+
+        private static final int MAX_CLASSES = 10000;
+
+        // Held by this plugin rather than attached to the classes themselves, so tables cached for server
+        // and JDK classes never keep the plugin's loader alive. Entries of library and plugin loaders are dropped
+        // by forget() when those go away, and the whole map is cleared once it holds MAX_CLASSES classes.
+        private static final Map<Class<?>, ClassMembers> MEMBERS = new ConcurrentHashMap<>();
+
+        private static final MethodHandle MISSING = MethodHandles.constant(Object.class, null);
 
-        private static final Map<MemberKey, MethodHandle> METHOD_CACHE = new ConcurrentHashMap<>();
-        private static final Map<MemberKey, MethodHandle> FIELD_CACHE = new ConcurrentHashMap<>();
-        private static final Set<MemberKey> MISSING_MEMBERS = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        private static final class ClassMembers {
+            final Map<Signature, MethodHandle> methods = new ConcurrentHashMap<>();
+            final Map<String, MethodHandle> fields = new ConcurrentHashMap<>();
+            private volatile MemberTable table;
 
-        private static final class MemberKey {
-            final Class<?> clazz;
+            MemberTable table(Class<?> type) {
+                MemberTable current = table;
+                if (current == null) {
+                    current = new MemberTable(type);
+                    table = current;
+                }
+                return current;
+            }
+        }
+
+        // Methods and constructors grouped by name once per class, in the order overload resolution walks them:
+        // public methods (inherited included) first, then declared methods from the class up to Object.
+        // Fields are indexed by name the same way, the closest declaration winning over shadowed ones.
+        private static final class MemberTable {
+            private static final Method[] NO_METHODS = new Method[0];
+
+            final Map<String, Method[]> publicMethods;
+            final Map<String, Method[]> declaredMethods;
+            final Constructor<?>[] constructors;
+            final Map<String, Field> fields;
+
+            MemberTable(Class<?> type) {
+                publicMethods = group(Arrays.asList(type.getMethods()));
+                List<Method> declared = new ArrayList<>();
+                fields = new HashMap<>();
+                for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+                    declared.addAll(Arrays.asList(c.getDeclaredMethods()));
+                    for (Field f : c.getDeclaredFields()) {
+                        fields.putIfAbsent(f.getName(), f);
+                    }
+                }
+                declaredMethods = group(declared);
+                constructors = type.getDeclaredConstructors();
+            }
+
+            private static Map<String, Method[]> group(List<Method> methods) {
+                Map<String, List<Method>> byName = new HashMap<>();
+                for (Method m : methods) {
+                    byName.computeIfAbsent(m.getName(), k -> new ArrayList<>(2)).add(m);
+                }
+                Map<String, Method[]> out = new HashMap<>(byName.size() * 2);
+                for (Map.Entry<String, List<Method>> entry : byName.entrySet()) {
+                    out.put(entry.getKey(), entry.getValue().toArray(NO_METHODS));
+                }
+                return out;
+            }
+
+            Method[] publicMethods(String name) {
+                return publicMethods.getOrDefault(name, NO_METHODS);
+            }
+
+            Method[] declaredMethods(String name) {
+                return declaredMethods.getOrDefault(name, NO_METHODS);
+            }
+        }
+
+        // Builds the member table of an imported class ahead of time and makes its own public methods
+        // and constructors callable, so the first invoke on the main thread finds them ready.
+        static void prelink(Class<?> type) {
+            MemberTable table = members(type).table(type);
+            for (Method[] overloads : table.declaredMethods.values()) {
+                for (Method m : overloads) {
+                    if (m.getDeclaringClass() == type && Modifier.isPublic(m.getModifiers())) trySetAccessible(m);
+                }
+            }
+            for (Constructor<?> ctor : table.constructors) {
+                if (Modifier.isPublic(ctor.getModifiers())) trySetAccessible(ctor);
+            }
+        }
+
+        private static void trySetAccessible(AccessibleObject member) {
+            try {
+                member.trySetAccessible();
+            }
+            catch (SecurityException ignored) {}
+        }
+
+        // Name and argument types of one call; the owner is implied by the table the signature is stored in.
+        private static final class Signature {
             final String name;
             final Class<?>[] paramTypes;
             final int hashCode;
 
-            MemberKey(Class<?> clazz, String name, Class<?>[] paramTypes) {
-                this.clazz = clazz;
+            Signature(String name, Class<?>[] paramTypes) {
                 this.name = name;
                 this.paramTypes = paramTypes;
-                this.hashCode = Objects.hash(clazz, name) * 31 + Arrays.hashCode(paramTypes);
+                this.hashCode = name.hashCode() * 31 + Arrays.hashCode(paramTypes);
             }
 
             @Override
             public boolean equals(Object o) {
                 if (this == o) return true;
-                if (!(o instanceof MemberKey that)) return false;
-                return hashCode == that.hashCode && clazz == that.clazz &&
-                        name.equals(that.name) && Arrays.equals(paramTypes, that.paramTypes);
+                if (!(o instanceof Signature that)) return false;
+                return hashCode == that.hashCode && name.equals(that.name) && Arrays.equals(paramTypes, that.paramTypes);
             }
 
             @Override
             public int hashCode() { return hashCode; }
+
+            boolean mentions(ClassLoader loader) {
+                for (Class<?> type : paramTypes) {
+                    if (type != null && type.getClassLoader() == loader) return true;
+                }
+                return false;
+            }
         }
 
-        public static void clearCache() {
-            METHOD_CACHE.clear();
-            FIELD_CACHE.clear();
-            MISSING_MEMBERS.clear();
+        private static ClassMembers members(Class<?> type) {
+            ClassMembers members = MEMBERS.get(type);
+            if (members != null) return members;
+            if (MEMBERS.size() >= MAX_CLASSES) MEMBERS.clear();
+            return MEMBERS.computeIfAbsent(type, k -> new ClassMembers());
         }
 
-        private static void checkCacheSize() {
-            if (METHOD_CACHE.size() > MAX_REFLECTION_CACHE_SIZE) {
-                clearCache();
-            }
+        private static void cache(ClassMembers members, Signature signature, MethodHandle handle) {
+            if (members.methods.size() >= MAX_SIGNATURES_PER_CLASS) members.methods.clear();
+            members.methods.put(signature, handle);
+        }
+
+        // Drops the tables of classes from the loader, and tables of other classes whose cached
+        // signatures mention one of its types (e.g. java.util.List.add called with a library object).
+        static void forget(ClassLoader loader) {
+            MEMBERS.entrySet().removeIf(entry -> entry.getKey().getClassLoader() == loader
+                    || entry.getValue().methods.keySet().stream().anyMatch(signature -> signature.mentions(loader)));
         }
 
         static Object construct(Class<?> type, Object[] args) throws Throwable {
-            Class<?>[] argTypes = getTypes(args);
-            MemberKey key = new MemberKey(type, "<init>", argTypes);
-            MethodHandle handle = METHOD_CACHE.get(key);
+            ClassMembers members = members(type);
+            Signature signature = new Signature("<init>", getTypes(args));
+            MethodHandle handle = members.methods.get(signature);
 
             if (handle == null) {
-                checkCacheSize();
-                Constructor<?> ctor = findConstructorDeep(type, args);
+                Constructor<?> ctor = findConstructorDeep(members.table(type), args);
                 if (ctor == null) throw new NoSuchMethodException("No constructor for " + type.getName());
 
                 ctor.setAccessible(true);
                 handle = ROOT_LOOKUP.unreflectConstructor(ctor);
                 
-                METHOD_CACHE.put(key, handle);
+                cache(members, signature, handle);
             }
 
             boolean isVarargs = handle.type().parameterArray().length > 0 &&
@@ -988,28 +1579,26 @@ public final class JavaExpressionEngine {
         static Object invokeMethod(Object targetOrClass, String name, Object[] args) throws Throwable {
             boolean isStatic = targetOrClass instanceof Class<?>;
             Class<?> owner = isStatic ? (Class<?>) targetOrClass : targetOrClass.getClass();
-            Class<?>[] argTypes = getTypes(args);
-
-            MemberKey key = new MemberKey(owner, name, argTypes);
+            ClassMembers members = members(owner);
+            Signature signature = new Signature(name, getTypes(args));
 
-            MethodHandle handle = METHOD_CACHE.get(key);
+            MethodHandle handle = members.methods.get(signature);
 
-            if (handle == null && MISSING_MEMBERS.contains(key)) {
+            if (handle == MISSING) {
                 throw new NoSuchMethodException("Method " + name + " not found (cached miss)");
             }
 
             if (handle == null) {
-                checkCacheSize();
-                Method method = findMethodDeep(owner, name, args);
+                Method method = findMethodDeep(members.table(owner), name, args);
                 if (method == null) {
-                    MISSING_MEMBERS.add(key);
+                    cache(members, signature, MISSING);
                     throw new NoSuchMethodException("Method " + name + " not found in " + owner.getName());
                 }
 
                 method.setAccessible(true);
                 handle = ROOT_LOOKUP.unreflect(method);
                 
-                METHOD_CACHE.put(key, handle);
+                cache(members, signature, handle);
             }
 
             MethodHandle invocationHandle;
@@ -1073,18 +1662,22 @@ public final class JavaExpressionEngine {
             boolean isStatic = targetOrClass instanceof Class<?>;
             Class<?> owner = isStatic ? (Class<?>) targetOrClass : targetOrClass.getClass();
 
-            MemberKey key = new MemberKey(owner, name, null);
-            MethodHandle handle = FIELD_CACHE.get(key);
+            ClassMembers members = members(owner);
+            MethodHandle handle = members.fields.get(name);
 
             if (handle == null) {
-                checkCacheSize();
                 Field field = findFieldDeep(owner, name);
-                if (field == null) throw new NoSuchFieldException("Field " + name + " not found");
-
-                field.setAccessible(true);
-                handle = ROOT_LOOKUP.unreflectGetter(field);
-                FIELD_CACHE.put(key, handle);
+                if (field == null) {
+                    handle = MISSING;
+                }
+                else {
+                    field.setAccessible(true);
+                    handle = ROOT_LOOKUP.unreflectGetter(field);
+                }
+                members.fields.put(name, handle);
             }
+            // Misses are cached too, so reading a missing field again does not search the class again.
+            if (handle == MISSING) throw new NoSuchFieldException("Field " + name + " not found");
 
             return isStatic ? handle.invoke() : handle.invoke(targetOrClass);
         }
@@ -1098,54 +1691,62 @@ public final class JavaExpressionEngine {
         }
 
         static Field findFieldDeep(Class<?> type, String name) {
-            for (Class<?> c = type; c != null; c = c.getSuperclass()) {
-                try { return c.getDeclaredField(name); } catch (NoSuchFieldException ignored) {}
-            }
-            return null;
+            return members(type).table(type).fields.get(name);
         }
 
         static Method findMethodDeep(Class<?> type, String name, Object[] args) {
-            
-            for (Method m : type.getMethods()) {
-                if (m.getName().equals(name) && !m.isVarArgs() && isApplicable(m.getParameterTypes(), args, true)) return m;
+            return findMethodDeep(members(type).table(type), name, args);
+        }
+
+        private static Method findMethodDeep(MemberTable table, String name, Object[] args) {
+            Method[] methods = table.publicMethods(name);
+
+            for (Method m : methods) {
+                if (!m.isVarArgs() && isApplicable(m.getParameterTypes(), args, true)) return m;
             }
             
-            for (Method m : type.getMethods()) {
-                if (m.getName().equals(name) && m.isVarArgs() && isVarArgApplicable(m.getParameterTypes(), args, true)) return m;
+            for (Method m : methods) {
+                if (m.isVarArgs() && isVarArgApplicable(m.getParameterTypes(), args, true)) return m;
             }
             
-            for (Method m : type.getMethods()) {
-                if (m.getName().equals(name) && !m.isVarArgs() && isApplicable(m.getParameterTypes(), args, false)) return m;
+            for (Method m : methods) {
+                if (!m.isVarArgs() && isApplicable(m.getParameterTypes(), args, false)) return m;
             }
             
-            for (Method m : type.getMethods()) {
-                if (m.getName().equals(name) && m.isVarArgs() && isVarArgApplicable(m.getParameterTypes(), args, false)) return m;
+            for (Method m : methods) {
+                if (m.isVarArgs() && isVarArgApplicable(m.getParameterTypes(), args, false)) return m;
             }
             
-            for (Class<?> c = type; c != null; c = c.getSuperclass()) {
-                for (Method m : c.getDeclaredMethods()) {
-                    if (m.getName().equals(name)) {
-                        boolean v = m.isVarArgs();
-                        if (v ? isVarArgApplicable(m.getParameterTypes(), args, false) : isApplicable(m.getParameterTypes(), args, false)) {
-                            return m;
-                        }
-                    }
+            for (Method m : table.declaredMethods(name)) {
+                boolean v = m.isVarArgs();
+                if (v ? isVarArgApplicable(m.getParameterTypes(), args, false) : isApplicable(m.getParameterTypes(), args, false)) {
+                    return m;
                 }
             }
             return null;
         }
 
+        static boolean hasMethodNamed(Class<?> type, String name) {
+            MemberTable table = members(type).table(type);
+            return table.publicMethods.containsKey(name) || table.declaredMethods.containsKey(name);
+        }
+
         static Constructor<?> findConstructorDeep(Class<?> type, Object[] args) {
-            for (Constructor<?> ctor : type.getDeclaredConstructors()) {
+            return findConstructorDeep(members(type).table(type), args);
+        }
+
+        private static Constructor<?> findConstructorDeep(MemberTable table, Object[] args) {
+            Constructor<?>[] constructors = table.constructors;
+            for (Constructor<?> ctor : constructors) {
                 if (!ctor.isVarArgs() && isApplicable(ctor.getParameterTypes(), args, true)) return ctor;
             }
-            for (Constructor<?> ctor : type.getDeclaredConstructors()) {
+            for (Constructor<?> ctor : constructors) {
                 if (ctor.isVarArgs() && isVarArgApplicable(ctor.getParameterTypes(), args, true)) return ctor;
             }
-            for (Constructor<?> ctor : type.getDeclaredConstructors()) {
+            for (Constructor<?> ctor : constructors) {
                 if (!ctor.isVarArgs() && isApplicable(ctor.getParameterTypes(), args, false)) return ctor;
             }
-            for (Constructor<?> ctor : type.getDeclaredConstructors()) {
+            for (Constructor<?> ctor : constructors) {
                 if (ctor.isVarArgs() && isVarArgApplicable(ctor.getParameterTypes(), args, false)) return ctor;
             }
             return null;
@@ -1205,8 +1806,50 @@ public final class JavaExpressionEngine {
             return Number.class.isAssignableFrom(w);
         }
 
+        private static final ClassValue<Map<String, Enum<?>>> ENUM_CONSTANTS = new ClassValue<>() {
+            @Override
+            protected Map<String, Enum<?>> computeValue(Class<?> type) {
+                Map<String, Enum<?>> out = new HashMap<>();
+                Object[] constants = type.getEnumConstants();
+                if (constants != null) {
+                    for (Object c : constants) out.put(((Enum<?>) c).name(), (Enum<?>) c);
+                }
+                return out;
+            }
+        };
+
+        static Enum<?> enumConstant(Class<?> type, String name) {
+            return ENUM_CONSTANTS.get(type).get(name);
+        }
+
         private static boolean isParsableNumber(String s) {
-            try { Double.parseDouble(s); return true; } catch(Exception e) { return false; }
+            int len = s.length();
+            int i = 0;
+            while (i < len && Character.isWhitespace(s.charAt(i))) i++;
+            while (len > i && Character.isWhitespace(s.charAt(len - 1))) len--;
+            if (i < len && (s.charAt(i) == '+' || s.charAt(i) == '-')) i++;
+            if (s.startsWith("NaN", i)) return i + 3 == len;
+            if (s.startsWith("Infinity", i)) return i + 8 == len;
+            int digits = 0;
+            while (i < len && isDigit(s.charAt(i))) { i++; digits++; }
+            if (i < len && s.charAt(i) == '.') {
+                i++;
+                while (i < len && isDigit(s.charAt(i))) { i++; digits++; }
+            }
+            if (digits == 0) return false;
+            if (i < len && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+                i++;
+                if (i < len && (s.charAt(i) == '+' || s.charAt(i) == '-')) i++;
+                int exponent = 0;
+                while (i < len && isDigit(s.charAt(i))) { i++; exponent++; }
+                if (exponent == 0) return false;
+            }
+            if (i < len && "fFdD".indexOf(s.charAt(i)) >= 0) i++;
+            return i == len;
+        }
+
+        private static boolean isDigit(char c) {
+            return c >= '0' && c <= '9';
         }
 
         public static Object adaptArgument(Class<?> paramType, Object arg) {
@@ -1226,7 +1869,8 @@ public final class JavaExpressionEngine {
                 if (paramType == boolean.class || paramType == Boolean.class) return text.equalsIgnoreCase("true") || text.equals("1");
                 if (paramType == char.class || paramType == Character.class) return text.isEmpty() ? '\0' : text.charAt(0);
                 if (paramType.isEnum()) {
-                    try { return Enum.valueOf((Class<Enum>) paramType, text); } catch (Exception ignored) {}
+                    Enum<?> constant = enumConstant(paramType, text);
+                    if (constant != null) return constant;
                 }
                 if (Number.class.isAssignableFrom(primitiveToWrapper(paramType))) return convertToNumber(primitiveToWrapper(paramType), text);
             }
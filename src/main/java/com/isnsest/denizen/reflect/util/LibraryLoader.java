@@ -1,59 +1,339 @@
 package com.isnsest.denizen.reflect.util;
 
 import com.denizenscript.denizencore.utilities.debugging.Debug;
-import org.jetbrains.annotations.NotNull;
 
-import java.io.IOException;
+import java.io.*;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.nio.file.FileSystems;
-import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
-import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32C;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 public class LibraryLoader {
-    private static ClassLoader classLoader = LibraryLoader.class.getClassLoader();
+    private static final ClassLoader PLUGIN_LOADER = LibraryLoader.class.getClassLoader();
+    private static volatile ClassLoader classLoader = PLUGIN_LOADER;
 
     public static List<String> libraries = new ArrayList<>();
 
     private static final PathMatcher MATCHER =
             FileSystems.getDefault().getPathMatcher("glob:**/*.jar");
 
-    private static class LibraryVisitor extends SimpleFileVisitor<Path> {
-        private final List<URL> urls = new ArrayList<>();
+    // Index of every class shipped in libs/, so lookups go straight to the jar that has it
+    // and names that are in no library never trigger a search through 30+ jars.
+    private static final String INDEX_FILE = "library-index.bin";
+    private static final int INDEX_VERSION = 1;
 
-        @NotNull
+    private static Path libsFolder;
+
+    // Each jar gets its own loader so it can be replaced on its own; jars are kept in load order,
+    // which decides which copy of a duplicated class is used.
+    private static final Map<String, Library> loaded = new LinkedHashMap<>();
+
+    private static volatile Map<String, Library> classIndex = Collections.emptyMap();
+    private static volatile Map<String, Set<String>> packageIndex = Collections.emptyMap();
+
+    private record JarIndex(String name, long modified, long size, long hash, List<String> classes) {
+    }
+
+    private record Library(String name, Path jar, JarIndex index, LibraryClassLoader loader) {
+    }
+
+    // Own classes come from the jar; classes of other libraries are found through the index,
+    // so libraries can still depend on each other while living in separate loaders.
+    private static final class LibraryClassLoader extends URLClassLoader {
+        static {
+            ClassLoader.registerAsParallelCapable();
+        }
+
+        private final String library;
+        // Libraries this one has loaded classes from; those links point at their loader of the time.
+        private final Set<String> dependencies = ConcurrentHashMap.newKeySet();
+
+        LibraryClassLoader(String library, URL url) {
+            super(new URL[]{url}, PLUGIN_LOADER);
+            this.library = library;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            Library owner = classIndex.get(name);
+            if (owner == null) throw new ClassNotFoundException(name);
+            if (owner.loader == this) return super.findClass(name);
+            dependencies.add(owner.name);
+            return owner.loader.loadClass(name);
+        }
+
+        @Override
+        public String toString() {
+            return "LibraryClassLoader[" + library + "]";
+        }
+    }
+
+    // The loader handed to proxies and Class.forName: sees the server, the plugin and every library.
+    // It is replaced on each library reload, so proxy classes made against an old library can be collected.
+    private static final class CompositeClassLoader extends ClassLoader {
+        static {
+            ClassLoader.registerAsParallelCapable();
+        }
+
+        private final List<LibraryClassLoader> loaders;
+
+        CompositeClassLoader(List<LibraryClassLoader> loaders) {
+            super(PLUGIN_LOADER);
+            this.loaders = loaders;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            Library owner = classIndex.get(name);
+            if (owner == null) throw new ClassNotFoundException(name);
+            return owner.loader.loadClass(name);
+        }
+
+        // Resources are searched in load order, so getResource and ServiceLoader see the libraries too.
         @Override
-        public FileVisitResult visitFile(@NotNull Path file, @NotNull BasicFileAttributes attrs) throws IOException {
-            if (MATCHER.matches(file)) {
-                Debug.log("denizen-reflect", "Loaded external library " + file.getFileName());
-                urls.add(file.toUri().toURL());
-                libraries.add(file.getFileName().toString().replace(".jar", ""));
+        protected URL findResource(String name) {
+            for (LibraryClassLoader loader : loaders) {
+                URL url = loader.findResource(name);
+                if (url != null) return url;
             }
-            return super.visitFile(file, attrs);
+            return null;
         }
 
-        public URL[] getUrls() {
-            return urls.toArray(new URL[0]);
+        @Override
+        protected Enumeration<URL> findResources(String name) throws IOException {
+            List<URL> urls = new ArrayList<>();
+            for (LibraryClassLoader loader : loaders) {
+                urls.addAll(Collections.list(loader.findResources(name)));
+            }
+            return Collections.enumeration(urls);
         }
     }
 
     public static void loadLibraries(Path dataFolder) throws IOException {
-        if (Files.isDirectory(dataFolder)) {
-            LibraryVisitor visitor = new LibraryVisitor();
-            Files.walkFileTree(dataFolder, visitor);
-            classLoader = new URLClassLoader(visitor.getUrls(), LibraryLoader.class.getClassLoader());
-        } else {
+        libsFolder = dataFolder;
+        if (!Files.isDirectory(dataFolder)) {
             Files.createDirectories(dataFolder);
+            return;
+        }
+        List<Path> jars;
+        try (var walk = Files.walk(dataFolder)) {
+            jars = walk.filter(file -> Files.isRegularFile(file) && MATCHER.matches(file)).sorted().toList();
+        }
+        Map<String, JarIndex> previous = readIndex(dataFolder.resolveSibling(INDEX_FILE));
+
+        List<JarIndex> indexed = jars.parallelStream().map(jar -> indexJar(jar, previous.get(jar.getFileName().toString()))).toList();
+
+        synchronized (loaded) {
+            for (int i = 0; i < jars.size(); i++) {
+                JarIndex jar = indexed.get(i);
+                if (jar == null) continue;
+                String name = jar.name.replace(".jar", "");
+                Debug.log("denizen-reflect", "Loaded external library " + jar.name);
+                loaded.put(name, new Library(name, jars.get(i), jar, new LibraryClassLoader(name, jars.get(i).toUri().toURL())));
+                libraries.add(name);
+            }
+            publish();
+        }
+    }
+
+    // Swaps one library for a fresh loader over its current jar. The engine drops everything it cached from the
+    // old loader before it is closed, so nothing keeps its classes (and their metaspace) alive.
+    // Libraries that already loaded classes from it are linked to the old loader, so they get fresh loaders as well.
+    public static void reloadLibrary(String name) throws IOException {
+        List<String> names;
+        synchronized (loaded) {
+            Library target = loaded.get(name);
+            if (target == null) throw new FileNotFoundException("No such library: " + name);
+            names = dependentsOf(name);
+            Map<String, Library> fresh = new LinkedHashMap<>();
+            for (String library : names) {
+                Library old = loaded.get(library);
+                if (!Files.isRegularFile(old.jar)) throw new FileNotFoundException("Library jar is missing: " + old.jar.getFileName());
+                JarIndex index = indexJar(old.jar, library.equals(name) ? null : old.index);
+                if (index == null) throw new IOException("Failed to read " + old.jar.getFileName());
+                fresh.put(library, new Library(library, old.jar, index, new LibraryClassLoader(library, old.jar.toUri().toURL())));
+            }
+            List<Library> replaced = new ArrayList<>();
+            for (Library library : fresh.values()) {
+                replaced.add(loaded.put(library.name, library));
+            }
+            publish();
+            for (Library old : replaced) {
+                JavaExpressionEngine.forgetClassLoader(old.loader);
+                old.loader.close();
+            }
         }
+        Debug.log("denizen-reflect", "Reloaded external library " + name
+                + (names.size() > 1 ? " and its dependents " + String.join(", ", names.subList(1, names.size())) : ""));
+    }
+
+    // The library itself first, then every library that loaded classes from it, directly or through another one.
+    private static List<String> dependentsOf(String name) {
+        List<String> out = new ArrayList<>();
+        out.add(name);
+        for (int i = 0; i < out.size(); i++) {
+            for (Library library : loaded.values()) {
+                if (!out.contains(library.name) && library.loader.dependencies.contains(out.get(i))) {
+                    out.add(library.name);
+                }
+            }
+        }
+        return out;
+    }
+
+    private static void publish() {
+        Map<String, Library> classes = new HashMap<>();
+        Map<String, Set<String>> packages = new HashMap<>();
+        Map<String, Map<String, List<String>>> duplicates = new LinkedHashMap<>();
+        for (Library library : loaded.values()) {
+            for (String cls : library.index.classes) {
+                // The first library to define a class is the one that is used.
+                Library owner = classes.putIfAbsent(cls, library);
+                if (owner != null) {
+                    duplicates.computeIfAbsent(library.index.name, k -> new LinkedHashMap<>()).computeIfAbsent(owner.index.name, k -> new ArrayList<>()).add(cls);
+                    continue;
+                }
+                int dot = cls.lastIndexOf('.');
+                packages.computeIfAbsent(dot < 0 ? "" : cls.substring(0, dot), k -> new HashSet<>()).add(cls.substring(dot + 1));
+            }
+        }
+        for (var jar : duplicates.entrySet()) {
+            for (var owner : jar.getValue().entrySet()) {
+                List<String> shared = owner.getValue();
+                Debug.echoError("Library " + jar.getKey() + " contains " + shared.size() + " class(es) already provided by "
+                        + owner.getKey() + " (e.g. " + shared.get(0) + "); the copies from " + owner.getKey() + " are used.");
+            }
+        }
+
+        classIndex = classes;
+        packageIndex = packages;
+        classLoader = new CompositeClassLoader(loaded.values().stream().map(Library::loader).toList());
+        writeIndex(libsFolder.resolveSibling(INDEX_FILE), loaded.values().stream().map(Library::index).toList());
     }
 
     public static ClassLoader getClassLoader() {
         return classLoader;
     }
-}
\ No newline at end of file
+
+    // Library classes load straight from their own loader; anything else only asks the server's loader.
+    // Classes are not initialized here: that happens on first use, or earlier in ClassPreloader for imports.
+    public static Class<?> loadClass(String name) throws ClassNotFoundException {
+        // Arrays of library classes have to come from the loader of their element class.
+        String element = name.startsWith("[") && name.endsWith(";") ? name.substring(name.indexOf('L') + 1, name.length() - 1) : name;
+        Library owner = classIndex.get(element);
+        return Class.forName(name, false, owner != null ? owner.loader : PLUGIN_LOADER);
+    }
+
+    // Changes whenever a library is added, removed, reordered or rebuilt.
+    public static long fingerprint() {
+        synchronized (loaded) {
+            long hash = 1;
+            for (Library library : loaded.values()) {
+                hash = 31 * (31 * hash + library.name.hashCode()) + library.index.hash;
+            }
+            return hash;
+        }
+    }
+
+    // Simple names of the library classes in a package, used to expand star imports without probing the loader.
+    public static Set<String> classesIn(String packageName) {
+        return packageIndex.getOrDefault(packageName, Collections.emptySet());
+    }
+
+    // Unchanged jars (same size and timestamp, or same content hash) reuse their class list from the last start.
+    private static JarIndex indexJar(Path jar, JarIndex previous) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(jar, BasicFileAttributes.class);
+            long modified = attrs.lastModifiedTime().toMillis();
+            long size = attrs.size();
+            String name = jar.getFileName().toString();
+            if (previous != null && previous.modified == modified && previous.size == size) return previous;
+
+            long hash = hash(jar);
+            if (previous != null && previous.hash == hash && previous.size == size) {
+                return new JarIndex(name, modified, size, hash, previous.classes);
+            }
+            List<String> classes = new ArrayList<>();
+            try (ZipFile zip = new ZipFile(jar.toFile())) {
+                Enumeration<? extends ZipEntry> entries = zip.entries();
+                while (entries.hasMoreElements()) {
+                    String entry = entries.nextElement().getName();
+                    if (!entry.endsWith(".class") || entry.startsWith("META-INF/") || entry.endsWith("module-info.class")) continue;
+                    classes.add(entry.substring(0, entry.length() - 6).replace('/', '.'));
+                }
+            }
+            return new JarIndex(name, modified, size, hash, classes);
+        }
+        catch (IOException e) {
+            Debug.echoError("Failed to read external library " + jar.getFileName() + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static long hash(Path jar) throws IOException {
+        CRC32C crc = new CRC32C();
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream in = Files.newInputStream(jar)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) crc.update(buffer, 0, read);
+        }
+        return crc.getValue();
+    }
+
+    private static Map<String, JarIndex> readIndex(Path file) {
+        Map<String, JarIndex> out = new HashMap<>();
+        if (!Files.isRegularFile(file)) return out;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != INDEX_VERSION) return out;
+            int jars = in.readInt();
+            for (int i = 0; i < jars; i++) {
+                String name = in.readUTF();
+                long modified = in.readLong();
+                long size = in.readLong();
+                long hash = in.readLong();
+                int count = in.readInt();
+                List<String> classes = new ArrayList<>(count);
+                for (int j = 0; j < count; j++) classes.add(in.readUTF());
+                out.put(name, new JarIndex(name, modified, size, hash, classes));
+            }
+        }
+        catch (IOException e) {
+            out.clear();
+        }
+        return out;
+    }
+
+    private static void writeIndex(Path file, List<JarIndex> jars) {
+        Path temp = file.resolveSibling(INDEX_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            List<JarIndex> present = jars.stream().filter(Objects::nonNull).toList();
+            out.writeInt(INDEX_VERSION);
+            out.writeInt(present.size());
+            for (JarIndex jar : present) {
+                out.writeUTF(jar.name);
+                out.writeLong(jar.modified);
+                out.writeLong(jar.size);
+                out.writeLong(jar.hash);
+                out.writeInt(jar.classes.size());
+                for (String cls : jar.classes) out.writeUTF(cls);
+            }
+        }
+        catch (IOException e) {
+            Debug.echoError("Failed to save the library index: " + e.getMessage());
+            return;
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException ignored) {}
+    }
+}
@@ -0,0 +1,191 @@
+package com.isnsest.denizen.reflect.util;
+
+import com.denizenscript.denizencore.objects.ObjectTag;
+import com.denizenscript.denizencore.objects.core.ListTag;
+import com.denizenscript.denizencore.objects.core.MapTag;
+import com.denizenscript.denizencore.scripts.queues.ScriptQueue;
+import com.denizenscript.denizencore.utilities.text.StringHolder;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+// A queue definition map whose contents can be handed to other queues by reference.
+// Once shared, the first write through any of the holders copies the contents, so the others keep seeing the old values.
+// Lists and maps can be changed in place, so each holder also copies one the first time it reads it by name,
+// the same copy a full duplicate() of the definitions used to make. Iterating the entries hands out the shared values.
+public final class SharedDefinitions extends MapTag {
+
+    private SharedDefinitions(CopyOnWriteMap map) {
+        this.map = map;
+    }
+
+    // Freezes the queue's current definitions and returns a view of them, without copying.
+    // A plain map is swapped for a sharing one first, so later writes in the queue do not reach the snapshot.
+    public static MapTag snapshot(ScriptQueue queue) {
+        MapTag current = queue.definitions;
+        if (!(current instanceof SharedDefinitions)) {
+            current = new SharedDefinitions(new CopyOnWriteMap(current.map, false));
+            queue.definitions = current;
+        }
+        return share(current);
+    }
+
+    // Another view of a map made by snapshot or share; a plain map is copied, since its writes cannot be intercepted.
+    public static MapTag share(MapTag source) {
+        if (source instanceof SharedDefinitions own && own.map instanceof CopyOnWriteMap contents) {
+            contents.shared = true;
+            contents.owned.clear();
+            return new SharedDefinitions(new CopyOnWriteMap(contents.data, true));
+        }
+        return new SharedDefinitions(new CopyOnWriteMap(new LinkedHashMap<>(source.map), false));
+    }
+
+    // A nested map may still be shared with another holder, so each one on the path is copied before writing.
+    @Override
+    public void putDeepObject(String key, ObjectTag obj) {
+        int dot = key.lastIndexOf('.');
+        if (dot < 0) {
+            putObject(key, obj);
+            return;
+        }
+        Set<ObjectTag> ownNested = ((CopyOnWriteMap) map).owned;
+        MapTag current = this;
+        for (String part : key.substring(0, dot).split("\\.")) {
+            ObjectTag child = current.getObject(part);
+            MapTag copy = new MapTag();
+            if (child instanceof MapTag nested) {
+                if (ownNested.contains(nested)) {
+                    current = nested;
+                    continue;
+                }
+                copy.map.putAll(nested.map);
+            }
+            ownNested.add(copy);
+            current.putObject(part, copy);
+            current = copy;
+        }
+        current.putObject(key.substring(dot + 1), obj);
+    }
+
+    // The backing map of a holder. Reads go to the contents, which may be shared with other holders;
+    // any write, including one made directly on MapTag.map, first gives this holder its own copy.
+    private static final class CopyOnWriteMap extends LinkedHashMap<StringHolder, ObjectTag> {
+        private LinkedHashMap<StringHolder, ObjectTag> data;
+        private boolean shared;
+        // Lists and maps this holder has copied since it was last shared; only these are safe to hand out for changes.
+        private final Set<ObjectTag> owned = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        CopyOnWriteMap(LinkedHashMap<StringHolder, ObjectTag> data, boolean shared) {
+            this.data = data;
+            this.shared = shared;
+        }
+
+        private LinkedHashMap<StringHolder, ObjectTag> own() {
+            if (shared) {
+                data = new LinkedHashMap<>(data);
+                shared = false;
+            }
+            return data;
+        }
+
+        @Override
+        public int size() { return data.size(); }
+
+        @Override
+        public boolean isEmpty() { return data.isEmpty(); }
+
+        @Override
+        public ObjectTag get(Object key) {
+            ObjectTag value = data.get(key);
+            if (!(value instanceof ListTag || value instanceof MapTag) || !(key instanceof StringHolder name) || owned.contains(value)) {
+                return value;
+            }
+            ObjectTag copy = value.duplicate();
+            owned.add(copy);
+            own().put(name, copy);
+            return copy;
+        }
+
+        @Override
+        public ObjectTag getOrDefault(Object key, ObjectTag defaultValue) {
+            ObjectTag value = get(key);
+            return value != null ? value : defaultValue;
+        }
+
+        @Override
+        public boolean containsKey(Object key) { return data.containsKey(key); }
+
+        @Override
+        public boolean containsValue(Object value) { return data.containsValue(value); }
+
+        @Override
+        public void forEach(BiConsumer<? super StringHolder, ? super ObjectTag> action) { data.forEach(action); }
+
+        // Views of shared contents are read-only; once owned they write straight through.
+        @Override
+        public Set<StringHolder> keySet() { return shared ? Collections.unmodifiableSet(data.keySet()) : data.keySet(); }
+
+        @Override
+        public Collection<ObjectTag> values() { return shared ? Collections.unmodifiableCollection(data.values()) : data.values(); }
+
+        @Override
+        public Set<Map.Entry<StringHolder, ObjectTag>> entrySet() { return shared ? Collections.unmodifiableSet(data.entrySet()) : data.entrySet(); }
+
+        @Override
+        public ObjectTag put(StringHolder key, ObjectTag value) { return own().put(key, value); }
+
+        @Override
+        public void putAll(Map<? extends StringHolder, ? extends ObjectTag> m) { own().putAll(m); }
+
+        @Override
+        public ObjectTag putIfAbsent(StringHolder key, ObjectTag value) { return own().putIfAbsent(key, value); }
+
+        @Override
+        public ObjectTag remove(Object key) { return data.containsKey(key) ? own().remove(key) : null; }
+
+        @Override
+        public boolean remove(Object key, Object value) { return own().remove(key, value); }
+
+        @Override
+        public ObjectTag replace(StringHolder key, ObjectTag value) { return own().replace(key, value); }
+
+        @Override
+        public boolean replace(StringHolder key, ObjectTag oldValue, ObjectTag newValue) { return own().replace(key, oldValue, newValue); }
+
+        @Override
+        public void replaceAll(BiFunction<? super StringHolder, ? super ObjectTag, ? extends ObjectTag> function) { own().replaceAll(function); }
+
+        @Override
+        public ObjectTag computeIfAbsent(StringHolder key, Function<? super StringHolder, ? extends ObjectTag> function) { return own().computeIfAbsent(key, function); }
+
+        @Override
+        public ObjectTag computeIfPresent(StringHolder key, BiFunction<? super StringHolder, ? super ObjectTag, ? extends ObjectTag> function) { return own().computeIfPresent(key, function); }
+
+        @Override
+        public ObjectTag compute(StringHolder key, BiFunction<? super StringHolder, ? super ObjectTag, ? extends ObjectTag> function) { return own().compute(key, function); }
+
+        @Override
+        public ObjectTag merge(StringHolder key, ObjectTag value, BiFunction<? super ObjectTag, ? super ObjectTag, ? extends ObjectTag> function) { return own().merge(key, value, function); }
+
+        @Override
+        public void clear() {
+            data = new LinkedHashMap<>();
+            shared = false;
+            owned.clear();
+        }
+
+        @Override
+        public Object clone() { return new LinkedHashMap<>(data); }
+
+        @Override
+        public boolean equals(Object o) { return o == this || data.equals(o); }
+
+        @Override
+        public int hashCode() { return data.hashCode(); }
+
+        @Override
+        public String toString() { return data.toString(); }
+    }
+}
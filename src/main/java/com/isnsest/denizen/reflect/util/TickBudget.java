@@ -0,0 +1,57 @@
+package com.isnsest.denizen.reflect.util;
+
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+
+// Per-tick time budget for loops that run many passes on the main thread.
+// Loops that ran in the last tick split the budget evenly; one that uses up its share waits for the next tick.
+public final class TickBudget {
+
+    public static long budgetNanos = 5_000_000;
+
+    private static long tick;
+    private static long tickStart = System.nanoTime();
+    private static int activeThisTick;
+    private static int activeLastTick;
+
+    private TickBudget() {
+    }
+
+    public static void start(Plugin plugin) {
+        Bukkit.getScheduler().runTaskTimer(plugin, TickBudget::nextTick, 1, 1);
+    }
+
+    private static void nextTick() {
+        tick++;
+        tickStart = System.nanoTime();
+        activeLastTick = activeThisTick;
+        activeThisTick = 0;
+    }
+
+    private static long share() {
+        return budgetNanos / Math.max(1, Math.max(activeLastTick, activeThisTick));
+    }
+
+    // Time accounting for one loop. All calls happen on the main thread.
+    public static final class Slot {
+        private long tick = -1;
+        private long spent;
+        private long passStart;
+
+        public void beginPass() {
+            passStart = System.nanoTime();
+        }
+
+        // Adds the pass that just finished to this tick's total and tells whether the loop should yield until the next tick.
+        public boolean endPass() {
+            long now = System.nanoTime();
+            if (tick != TickBudget.tick) {
+                tick = TickBudget.tick;
+                spent = 0;
+                activeThisTick++;
+            }
+            spent += now - Math.max(passStart, tickStart);
+            return budgetNanos > 0 && spent >= share();
+        }
+    }
+}
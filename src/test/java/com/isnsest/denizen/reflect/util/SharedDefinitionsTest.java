@@ -0,0 +1,135 @@
+package com.isnsest.denizen.reflect.util;
+
+import com.denizenscript.denizencore.objects.ObjectTag;
+import com.denizenscript.denizencore.objects.core.ElementTag;
+import com.denizenscript.denizencore.objects.core.ListTag;
+import com.denizenscript.denizencore.objects.core.MapTag;
+import com.denizenscript.denizencore.utilities.text.StringHolder;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SharedDefinitionsTest {
+
+    private static final ElementTag ONE = new ElementTag("1");
+    private static final ElementTag TWO = new ElementTag("2");
+
+    private static MapTag parentWith(String key, ObjectTag value) {
+        MapTag parent = SharedDefinitions.share(new MapTag());
+        parent.putObject(key, value);
+        return parent;
+    }
+
+    @Test
+    void childDefineDoesNotReachParent() {
+        MapTag parent = parentWith("x", ONE);
+        MapTag child = SharedDefinitions.share(parent);
+        child.putObject("x", TWO);
+        assertSame(ONE, parent.getObject("x"));
+        assertSame(TWO, child.getObject("x"));
+    }
+
+    @Test
+    void parentDefineDoesNotReachChild() {
+        MapTag parent = parentWith("x", ONE);
+        MapTag child = SharedDefinitions.share(parent);
+        parent.putObject("x", TWO);
+        assertSame(ONE, child.getObject("x"));
+    }
+
+    // define x:!
+    @Test
+    void childRemovalDoesNotReachParent() {
+        MapTag parent = parentWith("x", ONE);
+        MapTag child = SharedDefinitions.share(parent);
+        child.putObject("x", null);
+        assertNull(child.getObject("x"));
+        assertSame(ONE, parent.getObject("x"));
+    }
+
+    @Test
+    void directMapWritesDoNotReachParent() {
+        MapTag parent = parentWith("x", ONE);
+        MapTag child = SharedDefinitions.share(parent);
+        child.map.remove(new StringHolder("x"));
+        child.map.put(new StringHolder("y"), TWO);
+        assertSame(ONE, parent.getObject("x"));
+        assertNull(parent.getObject("y"));
+        assertNull(child.getObject("x"));
+    }
+
+    // define map.key:v
+    @Test
+    void childDeepDefineDoesNotReachParent() {
+        MapTag nested = new MapTag();
+        nested.putObject("key", ONE);
+        MapTag parent = parentWith("map", nested);
+        MapTag child = SharedDefinitions.share(parent);
+        child.putDeepObject("map.key", TWO);
+        child.putDeepObject("map.other", TWO);
+        assertSame(ONE, nested.getObject("key"));
+        assertNull(nested.getObject("other"));
+        assertSame(ONE, parent.getDeepObject("map.key"));
+        assertSame(TWO, child.getDeepObject("map.key"));
+        assertSame(TWO, child.getDeepObject("map.other"));
+    }
+
+    @Test
+    void deepDefineCreatesMissingMaps() {
+        MapTag parent = parentWith("x", ONE);
+        MapTag child = SharedDefinitions.share(parent);
+        child.putDeepObject("a.b.c", TWO);
+        assertSame(TWO, child.getDeepObject("a.b.c"));
+        assertNull(parent.getObject("a"));
+    }
+
+    // Lists and maps changed in place, like the old duplicate() of the definitions allowed.
+    @Test
+    void childListChangesDoNotReachParent() {
+        ListTag list = new ListTag();
+        list.addObject(ONE);
+        MapTag parent = parentWith("list", list);
+        MapTag child = SharedDefinitions.share(parent);
+        ((ListTag) child.getObject("list")).addObject(TWO);
+        assertEquals(1, list.size());
+        assertEquals(1, ((ListTag) parent.getObject("list")).size());
+        assertEquals(2, ((ListTag) child.getObject("list")).size());
+    }
+
+    @Test
+    void parentListChangesDoNotReachChild() {
+        ListTag list = new ListTag();
+        list.addObject(ONE);
+        MapTag parent = parentWith("list", list);
+        MapTag child = SharedDefinitions.share(parent);
+        ((ListTag) parent.getObject("list")).addObject(TWO);
+        assertEquals(1, ((ListTag) child.getObject("list")).size());
+    }
+
+    @Test
+    void childMapChangesDoNotReachParent() {
+        MapTag nested = new MapTag();
+        MapTag parent = parentWith("map", nested);
+        MapTag child = SharedDefinitions.share(parent);
+        ((MapTag) child.getObject("map")).putObject("key", TWO);
+        assertNull(nested.getObject("key"));
+        assertSame(TWO, child.getDeepObject("map.key"));
+    }
+
+    @Test
+    void ownedListIsReadBackUnchanged() {
+        ListTag list = new ListTag();
+        MapTag parent = parentWith("list", list);
+        MapTag child = SharedDefinitions.share(parent);
+        assertSame(child.getObject("list"), child.getObject("list"));
+    }
+
+    @Test
+    void plainMapIsCopied() {
+        MapTag plain = new MapTag();
+        plain.putObject("x", ONE);
+        MapTag copy = SharedDefinitions.share(plain);
+        plain.putObject("x", TWO);
+        assertSame(ONE, copy.getObject("x"));
+    }
+}